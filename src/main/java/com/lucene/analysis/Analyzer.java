@@ -1,5 +1,6 @@
 package com.lucene.analysis;
 
+import java.io.IOException;
 import java.io.Reader;
 
 /**
@@ -17,5 +18,34 @@ abstract public class Analyzer {
      * Reader.
      */
     abstract public TokenStream tokenStream(Reader reader);
+
+    /**
+     * Returns a TokenStream which tokenizes all the text in the provided
+     * Reader, re-using the stream built by the previous call from the same
+     * thread where the Analyzer can.  The previous stream must no longer be
+     * in use.  By default a new stream is built by {@link
+     * #tokenStream(Reader)}.
+     */
+    public TokenStream reusableTokenStream(Reader reader) throws IOException {
+        return tokenStream(reader);
+    }
+
+    private ThreadLocal previousTokenStream = new ThreadLocal();
+
+    /**
+     * Returns what was saved by {@link #setPreviousTokenStream(Object)} in
+     * the current thread, or null.
+     */
+    protected Object getPreviousTokenStream() {
+        return previousTokenStream.get();
+    }
+
+    /**
+     * Saves a stream, or whatever is needed to re-use it, for the current
+     * thread.
+     */
+    protected void setPreviousTokenStream(Object obj) {
+        previousTokenStream.set(obj);
+    }
 }
 
@@ -0,0 +1,62 @@
+package com.lucene.analysis;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import com.lucene.util.CharArrayMap;
+
+/**
+ * A set of words which may be tested with the term buffer of a {@link
+ * Token}, without making a String.  Used by {@link StopFilter}.
+ */
+public final class CharArraySet {
+    private CharArrayMap map;
+
+    /**
+     * Constructs a set holding the given words.
+     */
+    public CharArraySet(String[] words) {
+        map = new CharArrayMap(words.length);
+        for (int i = 0; i < words.length; i++)
+            add(words[i]);
+    }
+
+    /**
+     * Constructs a set holding the keys of a Hashtable.
+     */
+    public CharArraySet(Hashtable table) {
+        map = new CharArrayMap(table.size());
+        Enumeration words = table.keys();
+        while (words.hasMoreElements())
+            add((String) words.nextElement());
+    }
+
+    /**
+     * Adds a word to the set.
+     */
+    public final void add(String word) {
+        map.put(word, word);
+    }
+
+    /**
+     * Returns true iff the word held in <code>text[offset]</code> through
+     * <code>text[offset+length-1]</code> is in the set.
+     */
+    public final boolean contains(char[] text, int offset, int length) {
+        return map.get(text, offset, length) != null;
+    }
+
+    /**
+     * Returns true iff the word is in the set.
+     */
+    public final boolean contains(String word) {
+        return map.get(word) != null;
+    }
+
+    /**
+     * Returns the number of words in the set.
+     */
+    public final int size() {
+        return map.size();
+    }
+}
@@ -37,10 +37,19 @@ public final class LetterTokenizer extends Tokenizer {
     private int offset = 0, bufferIndex = 0, dataLen = 0;
     private final static int MAX_WORD_LEN = 255;
     private final static int IO_BUFFER_SIZE = 1024;
-    private final char[] buffer = new char[MAX_WORD_LEN];
     private final char[] ioBuffer = new char[IO_BUFFER_SIZE];
 
-    public final Token next() throws java.io.IOException {
+    /**
+     * Resets this tokenizer to read from a new Reader.
+     */
+    public final void reset(Reader in) throws java.io.IOException {
+        super.reset(in);
+        offset = bufferIndex = dataLen = 0;
+    }
+
+    public final Token next(Token result) throws java.io.IOException {
+        result.clear();
+        char[] buffer = result.resizeTermBuffer(MAX_WORD_LEN);
         int length = 0;
         int start = offset;
         while (true) {
@@ -74,6 +83,9 @@ public final class LetterTokenizer extends Tokenizer {
 
         }
 
-        return new Token(new String(buffer, 0, length), start, start + length);
+        result.setTermLength(length);
+        result.setStartOffset(start);
+        result.setEndOffset(start + length);
+        return result;
     }
 }
@@ -27,13 +27,16 @@ public final class LowerCaseFilter extends TokenFilter {
         input = in;
     }
 
-    public final Token next() throws java.io.IOException {
-        Token t = input.next();
+    public final Token next(Token result) throws java.io.IOException {
+        Token t = input.next(result);
 
         if (t == null)
             return null;
 
-        t.termText = t.termText.toLowerCase();
+        char[] buffer = t.termBuffer();          // lower case in place
+        int length = t.termLength();
+        for (int i = 0; i < length; i++)
+            buffer[i] = Character.toLowerCase(buffer[i]);
 
         return t;
     }
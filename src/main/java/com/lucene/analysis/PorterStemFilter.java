@@ -50,14 +50,14 @@ public final class PorterStemFilter extends TokenFilter {
     /**
      * Returns the next input Token, after being stemmed
      */
-    public final Token next() throws IOException {
-        Token token = input.next();
+    public final Token next(Token result) throws IOException {
+        Token token = input.next(result);
         if (token == null)
             return null;
         else {
-            String s = stemmer.stem(token.termText);
-            if (s != token.termText) // Yes, I mean object reference comparison here
-                token.termText = s;
+            if (stemmer.stem(token.termBuffer(), 0, token.termLength()))
+                token.setTermBuffer(stemmer.getResultBuffer(), 0,
+                        stemmer.getResultLength());
             return token;
         }
     }
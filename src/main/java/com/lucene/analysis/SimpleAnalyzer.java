@@ -18,6 +18,7 @@
  */
 package com.lucene.analysis;
 
+import java.io.IOException;
 import java.io.Reader;
 
 /**
@@ -28,4 +29,16 @@ public final class SimpleAnalyzer extends Analyzer {
     public final TokenStream tokenStream(Reader reader) {
         return new LowerCaseTokenizer(reader);
     }
+
+    public final TokenStream reusableTokenStream(Reader reader)
+            throws IOException {
+        Tokenizer tokenizer = (Tokenizer) getPreviousTokenStream();
+        if (tokenizer == null) {
+            tokenizer = new LowerCaseTokenizer(reader);
+            setPreviousTokenStream(tokenizer);
+        } else {
+            tokenizer.reset(reader);
+        }
+        return tokenizer;
+    }
 }
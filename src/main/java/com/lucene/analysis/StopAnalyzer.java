@@ -18,15 +18,15 @@
  */
 package com.lucene.analysis;
 
+import java.io.IOException;
 import java.io.Reader;
-import java.util.Hashtable;
 
 /**
  * Filters LetterTokenizer with LowerCaseFilter and StopFilter.
  */
 
 public final class StopAnalyzer extends Analyzer {
-    private Hashtable stopTable;
+    private CharArraySet stopSet;
 
     /**
      * An array containing some common English words that are not usually useful
@@ -44,21 +44,41 @@ public final class StopAnalyzer extends Analyzer {
      * Builds an analyzer which removes words in ENGLISH_STOP_WORDS.
      */
     public StopAnalyzer() {
-        stopTable = StopFilter.makeStopTable(ENGLISH_STOP_WORDS);
+        stopSet = StopFilter.makeStopSet(ENGLISH_STOP_WORDS);
     }
 
     /**
      * Builds an analyzer which removes words in the provided array.
      */
     public StopAnalyzer(String[] stopWords) {
-        stopTable = StopFilter.makeStopTable(stopWords);
+        stopSet = StopFilter.makeStopSet(stopWords);
     }
 
     /**
      * Filters LowerCaseTokenizer with StopFilter.
      */
     public final TokenStream tokenStream(Reader reader) {
-        return new StopFilter(new LowerCaseTokenizer(reader), stopTable);
+        return new StopFilter(new LowerCaseTokenizer(reader), stopSet);
+    }
+
+    public final TokenStream reusableTokenStream(Reader reader)
+            throws IOException {
+        SavedStreams streams = (SavedStreams) getPreviousTokenStream();
+        if (streams == null) {
+            streams = new SavedStreams();
+            streams.source = new LowerCaseTokenizer(reader);
+            streams.result = new StopFilter(streams.source, stopSet);
+            setPreviousTokenStream(streams);
+        } else {
+            streams.source.reset(reader);
+        }
+        return streams.result;
+    }
+
+    /* The head and tail of a re-usable chain of streams. */
+    private static final class SavedStreams {
+        Tokenizer source;
+        TokenStream result;
     }
 }
 
@@ -27,7 +27,7 @@ import java.util.Hashtable;
 
 public final class StopFilter extends TokenFilter {
 
-    private Hashtable table;
+    private CharArraySet stopSet;
 
     /**
      * Constructs a filter which removes words from the input
@@ -35,7 +35,7 @@ public final class StopFilter extends TokenFilter {
      */
     public StopFilter(TokenStream in, String[] stopWords) {
         input = in;
-        table = makeStopTable(stopWords);
+        stopSet = new CharArraySet(stopWords);
     }
 
     /**
@@ -44,7 +44,16 @@ public final class StopFilter extends TokenFilter {
      */
     public StopFilter(TokenStream in, Hashtable stopTable) {
         input = in;
-        table = stopTable;
+        stopSet = new CharArraySet(stopTable);
+    }
+
+    /**
+     * Constructs a filter which removes words from the input
+     * TokenStream that are in the set.
+     */
+    public StopFilter(TokenStream in, CharArraySet stopSet) {
+        input = in;
+        this.stopSet = stopSet;
     }
 
     /**
@@ -60,12 +69,22 @@ public final class StopFilter extends TokenFilter {
     }
 
     /**
-     * Returns the next input Token whose termText() is not a stop word.
+     * Builds a set from an array of stop words, appropriate for passing into
+     * the StopFilter constructor.  This permits the set to be built once when
+     * an Analyzer is constructed.
+     */
+    public final static CharArraySet makeStopSet(String[] stopWords) {
+        return new CharArraySet(stopWords);
+    }
+
+    /**
+     * Returns the next input Token whose text is not a stop word.
      */
-    public final Token next() throws IOException {
+    public final Token next(Token result) throws IOException {
         // return the first non-stop word found
-        for (Token token = input.next(); token != null; token = input.next())
-            if (table.get(token.termText) == null)
+        for (Token token = input.next(result); token != null;
+             token = input.next(result))
+            if (!stopSet.contains(token.termBuffer(), 0, token.termLength()))
                 return token;
         // reached EOS -- return null
         return null;
@@ -17,11 +17,22 @@ package com.lucene.analysis;
  */
 
 public final class Token {
-    String termText;                  // the text of the term
+    String termText;                  // the text of the term, or null
+    char[] termBuffer;                  // the text, when termText is null
+    int termLength;
     int startOffset;                  // start in source text
     int endOffset;                  // end in source text
     String type = "word";                  // lexical type
 
+    private static final int MIN_BUFFER_SIZE = 16;
+
+    /**
+     * Constructs an empty Token, to be filled by {@link
+     * TokenStream#next(Token)}.
+     */
+    public Token() {
+    }
+
     /**
      * Constructs a Token with the given term text, and start & end offsets.
      * The type defaults to "word."
@@ -43,12 +54,82 @@ public final class Token {
     }
 
     /**
-     * Returns the Token's term text.
+     * Returns the Token's term text.  Where the text is held in the term
+     * buffer a String is made, so consumers that can should use {@link
+     * #termBuffer()} and {@link #termLength()} instead.
      */
     public final String termText() {
+        if (termText == null)
+            termText = new String(termBuffer(), 0, termLength);
         return termText;
     }
 
+    /**
+     * Returns the buffer holding the term text in its first {@link
+     * #termLength()} characters.  The buffer may be altered in place, and
+     * may be replaced by a later call to {@link #resizeTermBuffer(int)}.
+     */
+    public final char[] termBuffer() {
+        if (termText != null) {                  // move text into buffer
+            int length = termText.length();
+            if (termBuffer == null || termBuffer.length < length)
+                termBuffer = new char[Math.max(length, MIN_BUFFER_SIZE)];
+            termText.getChars(0, length, termBuffer, 0);
+            termLength = length;
+            termText = null;
+        } else if (termBuffer == null) {
+            termBuffer = new char[MIN_BUFFER_SIZE];
+        }
+        return termBuffer;
+    }
+
+    /**
+     * Returns the length of the term text.
+     */
+    public final int termLength() {
+        if (termText != null)
+            return termText.length();
+        return termLength;
+    }
+
+    /**
+     * Grows the term buffer to hold at least <code>size</code> characters,
+     * keeping its content, and returns it.
+     */
+    public final char[] resizeTermBuffer(int size) {
+        char[] buffer = termBuffer();
+        if (buffer.length < size) {
+            termBuffer = new char[Math.max(size, buffer.length * 2)];
+            System.arraycopy(buffer, 0, termBuffer, 0, termLength);
+        }
+        return termBuffer;
+    }
+
+    /**
+     * Sets the length of the term text held in the term buffer.
+     */
+    public final void setTermLength(int length) {
+        termBuffer();
+        termLength = length;
+    }
+
+    /**
+     * Copies the term text from a portion of a char array.
+     */
+    public final void setTermBuffer(char[] buffer, int offset, int length) {
+        termText = null;
+        char[] newBuffer = resizeTermBuffer(length);
+        System.arraycopy(buffer, offset, newBuffer, 0, length);
+        termLength = length;
+    }
+
+    /**
+     * Sets the term text.
+     */
+    public final void setTermText(String text) {
+        termText = text;
+    }
+
     /**
      * Returns this Token's starting offset, the position of the first character
      * corresponding to this token in the source text.
@@ -61,6 +142,13 @@ public final class Token {
         return startOffset;
     }
 
+    /**
+     * Sets this Token's starting offset.
+     */
+    public final void setStartOffset(int offset) {
+        startOffset = offset;
+    }
+
     /**
      * Returns this Token's ending offset, one greater than the position of the
      * last character corresponding to this token in the source text.
@@ -69,6 +157,13 @@ public final class Token {
         return endOffset;
     }
 
+    /**
+     * Sets this Token's ending offset.
+     */
+    public final void setEndOffset(int offset) {
+        endOffset = offset;
+    }
+
     /**
      * Returns this Token's lexical type.  Defaults to "word".
      */
@@ -76,4 +171,22 @@ public final class Token {
         return type;
     }
 
+    /**
+     * Sets this Token's lexical type.
+     */
+    public final void setType(String typ) {
+        type = typ;
+    }
+
+    /**
+     * Empties the term text and restores the default type, so that the Token
+     * can be re-used for another term.  The term buffer is kept.
+     */
+    public final void clear() {
+        termText = null;
+        termLength = 0;
+        startOffset = 0;
+        endOffset = 0;
+        type = "word";
+    }
 }
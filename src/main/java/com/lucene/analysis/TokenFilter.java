@@ -14,6 +14,13 @@ abstract public class TokenFilter extends TokenStream {
      */
     protected TokenStream input;
 
+    /**
+     * Resets the input TokenStream.
+     */
+    public void reset() throws IOException {
+        input.reset();
+    }
+
     /**
      * Close the input TokenStream.
      */
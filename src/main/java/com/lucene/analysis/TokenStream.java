@@ -17,9 +17,30 @@ import java.io.IOException;
 
 abstract public class TokenStream {
     /**
-     * Returns the next token in the stream, or null at EOS.
+     * Returns the next token in the stream, or null at EOS.  Subclasses must
+     * override at least one of next() and {@link #next(Token)}.
      */
-    abstract public Token next() throws IOException;
+    public Token next() throws IOException {
+        return next(new Token());
+    }
+
+    /**
+     * Returns the next token in the stream, or null at EOS, filling the
+     * provided Token where the stream can.  The returned Token may be the
+     * provided one or another, and is only valid until the next call.  This
+     * is the faster way to consume a stream, as it avoids allocating a Token
+     * and its text for each term.
+     */
+    public Token next(Token result) throws IOException {
+        return next();
+    }
+
+    /**
+     * Resets this stream to its beginning.  Only streams that can be re-used
+     * need implement this.
+     */
+    public void reset() throws IOException {
+    }
 
     /**
      * Releases resources associated with this stream.
@@ -15,6 +15,14 @@ abstract public class Tokenizer extends TokenStream {
      */
     protected Reader input;
 
+    /**
+     * Resets this Tokenizer to read from a new Reader, so that it can be
+     * re-used, e.g., by {@link Analyzer#reusableTokenStream(Reader)}.
+     */
+    public void reset(Reader input) throws IOException {
+        this.input = input;
+    }
+
     /**
      * By default, closes the input Reader.
      */
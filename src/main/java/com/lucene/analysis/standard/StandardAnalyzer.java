@@ -2,15 +2,15 @@ package com.lucene.analysis.standard;
 
 import com.lucene.analysis.*;
 
+import java.io.IOException;
 import java.io.Reader;
-import java.util.Hashtable;
 
 /**
  * Filters {@link StandardTokenizer} with {@link StandardFilter}, {@link
  * LowerCaseFilter} and {@link StopFilter}.
  */
 public final class StandardAnalyzer extends Analyzer {
-    private Hashtable stopTable;
+    private CharArraySet stopSet;
 
     /**
      * An array containing some common English words that are not usually useful
@@ -35,7 +35,7 @@ public final class StandardAnalyzer extends Analyzer {
      * Builds an analyzer with the given stop words.
      */
     public StandardAnalyzer(String[] stopWords) {
-        stopTable = StopFilter.makeStopTable(stopWords);
+        stopSet = StopFilter.makeStopSet(stopWords);
     }
 
     /**
@@ -46,7 +46,29 @@ public final class StandardAnalyzer extends Analyzer {
         TokenStream result = new StandardTokenizer(reader);
         result = new StandardFilter(result);
         result = new LowerCaseFilter(result);
-        result = new StopFilter(result, stopTable);
+        result = new StopFilter(result, stopSet);
         return result;
     }
+
+    public final TokenStream reusableTokenStream(Reader reader)
+            throws IOException {
+        SavedStreams streams = (SavedStreams) getPreviousTokenStream();
+        if (streams == null) {
+            streams = new SavedStreams();
+            streams.source = new StandardTokenizer(reader);
+            streams.result = new StandardFilter(streams.source);
+            streams.result = new LowerCaseFilter(streams.result);
+            streams.result = new StopFilter(streams.result, stopSet);
+            setPreviousTokenStream(streams);
+        } else {
+            streams.source.reset(reader);
+        }
+        return streams.result;
+    }
+
+    /* The head and tail of a re-usable chain of streams. */
+    private static final class SavedStreams {
+        Tokenizer source;
+        TokenStream result;
+    }
 }
@@ -43,33 +43,32 @@ public final class StandardFilter extends TokenFilter
      * <p>Removes <tt>'s</tt> from the end of words.
      * <p>Removes dots from acronyms.
      */
-    public final com.lucene.analysis.Token next() throws java.io.IOException {
-        com.lucene.analysis.Token t = input.next();
+    public final com.lucene.analysis.Token next(com.lucene.analysis.Token result)
+            throws java.io.IOException {
+        com.lucene.analysis.Token t = input.next(result);
 
         if (t == null)
             return null;
 
-        String text = t.termText();
         String type = t.type();
+        char[] buffer = t.termBuffer();
+        int length = t.termLength();
 
         if (type == APOSTROPHE_TYPE &&          // remove 's
-                (text.endsWith("'s") || text.endsWith("'S"))) {
-            return new com.lucene.analysis.Token
-                    (text.substring(0, text.length() - 2),
-                            t.startOffset(), t.endOffset(), type);
+                length >= 2 &&
+                buffer[length - 2] == '\'' &&
+                (buffer[length - 1] == 's' || buffer[length - 1] == 'S')) {
+            t.setTermLength(length - 2);
 
         } else if (type == ACRONYM_TYPE) {          // remove dots
-            StringBuffer trimmed = new StringBuffer();
-            for (int i = 0; i < text.length(); i++) {
-                char c = text.charAt(i);
+            int upto = 0;
+            for (int i = 0; i < length; i++) {
+                char c = buffer[i];
                 if (c != '.')
-                    trimmed.append(c);
+                    buffer[upto++] = c;
             }
-            return new com.lucene.analysis.Token
-                    (trimmed.toString(), t.startOffset(), t.endOffset(), type);
-
-        } else {
-            return t;
+            t.setTermLength(upto);
         }
+        return t;
     }
 }
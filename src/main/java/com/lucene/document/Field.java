@@ -17,6 +17,9 @@ public final class Field {
     private boolean isStored = false;
     private boolean isIndexed = true;
     private boolean isTokenized = true;
+    private boolean omitNorms = false;
+    private boolean omitPositions = false;
+    private boolean omitFreqs = false;
 
     /**
      * Constructs a String-valued Field that is not tokenized, but is indexed
@@ -124,6 +127,46 @@ public final class Field {
         return isTokenized;
     }
 
+    /**
+     * True iff no norm is stored for the field, so that matches in it are
+     * not normalized for its length.  Once any document of a segment stores
+     * norms for a field, all do.
+     */
+    public final boolean omitNorms() {
+        return omitNorms;
+    }
+
+    public final void setOmitNorms(boolean omit) {
+        omitNorms = omit;
+    }
+
+    /**
+     * True iff the positions of the field's terms are not stored, so that
+     * phrase queries cannot search it.  Once any document of a segment omits
+     * positions for a field, all do.
+     */
+    public final boolean omitPositions() {
+        return omitPositions;
+    }
+
+    public final void setOmitPositions(boolean omit) {
+        omitPositions = omit;
+    }
+
+    /**
+     * True iff neither the frequencies nor the positions of the field's terms
+     * are stored, so that each match counts as one occurrence.  Useful for
+     * keyword fields.  Once any document of a segment omits frequencies for a
+     * field, all do.
+     */
+    public final boolean omitFreqs() {
+        return omitFreqs;
+    }
+
+    public final void setOmitFreqs(boolean omit) {
+        omitFreqs = omit;
+    }
+
     /**
      * Prints a Field for human consumption.
      */
@@ -0,0 +1,111 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Enumeration;
+
+import com.lucene.analysis.Analyzer;
+import com.lucene.analysis.Token;
+import com.lucene.analysis.TokenStream;
+import com.lucene.document.Document;
+import com.lucene.document.Field;
+
+/* A document whose tokenized fields have been analyzed, e.g. by another
+   thread.  The term texts of each tokenized field are kept in order, packed
+   in one char array, and are replayed by streams that DocumentWriter reads
+   in place of the analyzer's.  Offsets and types are not kept. */
+final class AnalyzedDocument {
+    Document doc;
+    long number;                      // in the source
+    Throwable exception = null;
+
+    private char[] chars = new char[1024];
+    private int numChars = 0;
+    private int[] termEnds = new int[128];      // in chars, by term
+    private int numTerms = 0;
+    private int[] fieldEnds = new int[8];      // in terms, by tokenized field
+    private int numFields = 0;
+    private int nextField = 0;                  // to replay
+
+    final void analyze(Analyzer analyzer, int maxFieldLength)
+            throws IOException {
+        Token token = new Token();
+        Enumeration fields = doc.fields();
+        while (fields.hasMoreElements()) {
+            Field field = (Field) fields.nextElement();
+            if (!field.isIndexed() || !field.isTokenized())
+                continue;
+
+            Reader reader;                  // find or make Reader
+            if (field.readerValue() != null)
+                reader = field.readerValue();
+            else if (field.stringValue() != null)
+                reader = new StringReader(field.stringValue());
+            else
+                throw new IllegalArgumentException("field must have either String or Reader value");
+
+            TokenStream stream = analyzer.reusableTokenStream(reader);
+            try {
+                int count = 0;              // as many as DocumentWriter takes
+                for (Token t = stream.next(token); t != null; t = stream.next(token)) {
+                    addTerm(t.termBuffer(), t.termLength());
+                    if (++count > maxFieldLength)
+                        break;
+                }
+            } finally {
+                stream.close();
+            }
+
+            if (numFields == fieldEnds.length)
+                fieldEnds = grow(fieldEnds);
+            fieldEnds[numFields++] = numTerms;
+        }
+    }
+
+    private final void addTerm(char[] text, int length) {
+        if (numChars + length > chars.length) {
+            char[] newChars = new char[Math.max(numChars + length, chars.length * 2)];
+            System.arraycopy(chars, 0, newChars, 0, numChars);
+            chars = newChars;
+        }
+        System.arraycopy(text, 0, chars, numChars, length);
+        numChars += length;
+        if (numTerms == termEnds.length)
+            termEnds = grow(termEnds);
+        termEnds[numTerms++] = numChars;
+    }
+
+    private static final int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Returns a stream of the terms of the next tokenized field.
+     */
+    final TokenStream nextStream() {
+        int field = nextField++;
+        return new Replay(field == 0 ? 0 : fieldEnds[field - 1], fieldEnds[field]);
+    }
+
+    private final class Replay extends TokenStream {
+        private int term, end;
+
+        Replay(int start, int end) {
+            term = start;
+            this.end = end;
+        }
+
+        public Token next(Token result) {
+            if (term == end)
+                return null;
+            int start = term == 0 ? 0 : termEnds[term - 1];
+            result.clear();
+            result.setTermBuffer(chars, start, termEnds[term] - start);
+            term++;
+            return result;
+        }
+    }
+}
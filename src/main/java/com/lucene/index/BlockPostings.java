@@ -0,0 +1,127 @@
+package com.lucene.index;
+
+import java.io.IOException;
+
+import com.lucene.store.InputStream;
+import com.lucene.store.OutputStream;
+
+/* Writes a term's document numbers and frequencies to .frq in blocks of
+   BLOCK_SIZE documents.  A block holds the document deltas and then the
+   frequencies less one, each as a byte giving a bit width followed by the
+   values packed at that width, so that a block decodes in two tight loops
+   with no branch per value.  Documents after the last full block are
+   written as before: a VInt delta shifted left one, its low bit set when
+   the frequency is one, else followed by a VInt frequency.  Terms in fewer
+   than BLOCK_SIZE documents are thus written exactly as before.  Fields
+   which omit frequencies have no frequency blocks, and their remaining
+   documents are written as plain VInt deltas.
+
+   Positions in .prx are unchanged. */
+final class BlockPostings {
+    static final int BLOCK_SIZE = 128;
+
+    private int[] deltas = new int[BLOCK_SIZE];
+    private int[] freqs = new int[BLOCK_SIZE];      // less one
+    private byte[] packed = new byte[BLOCK_SIZE * 4];
+    private int count;
+    private int lastDoc;
+    private OutputStream output;
+    private boolean omitFreqs;
+
+    /**
+     * Starts writing a term's postings.
+     */
+    final void reset(OutputStream output, boolean omitFreqs) {
+        this.output = output;
+        this.omitFreqs = omitFreqs;
+        count = 0;
+        lastDoc = 0;
+    }
+
+    /**
+     * Adds a document, writing a block when one is full.
+     */
+    final void add(int doc, int freq) throws IOException {
+        deltas[count] = doc - lastDoc;
+        freqs[count] = freq - 1;
+        lastDoc = doc;
+        if (++count == BLOCK_SIZE) {
+            writeBlock(output, deltas, packed);
+            if (!omitFreqs)
+                writeBlock(output, freqs, packed);
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes the documents after the last full block.
+     */
+    final void finish() throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (omitFreqs) {
+                output.writeVInt(deltas[i]);
+                continue;
+            }
+            int docCode = deltas[i] << 1;
+            if (freqs[i] == 0) {
+                output.writeVInt(docCode | 1);
+            } else {
+                output.writeVInt(docCode);
+                output.writeVInt(freqs[i] + 1);
+            }
+        }
+        count = 0;
+    }
+
+    static final void writeBlock(OutputStream output, int[] values, byte[] packed)
+            throws IOException {
+        int or = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            or |= values[i];
+        int bits = 0;
+        while (or != 0) {
+            bits++;
+            or >>>= 1;
+        }
+        output.writeByte((byte) bits);
+
+        long buffer = 0;
+        int buffered = 0;
+        int upto = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            buffer |= (values[i] & 0xFFFFFFFFL) << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                packed[upto++] = (byte) buffer;
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        output.writeBytes(packed, upto);      // BLOCK_SIZE * bits is whole bytes
+    }
+
+    static final void readBlock(InputStream input, int[] values, int offset,
+                                byte[] packed) throws IOException {
+        int bits = input.readByte();
+        if (bits == 0) {
+            for (int i = offset; i < offset + BLOCK_SIZE; i++)
+                values[i] = 0;
+            return;
+        }
+        input.readBytes(packed, 0, BLOCK_SIZE * bits / 8);
+
+        long mask = (1L << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        int upto = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i++) {
+            while (buffered < bits) {
+                buffer |= (packed[upto++] & 0xFFL) << buffered;
+                buffered += 8;
+            }
+            values[i] = (int) (buffer & mask);
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+    }
+}
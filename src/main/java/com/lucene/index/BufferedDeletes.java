@@ -0,0 +1,114 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.lucene.search.HitCollector;
+import com.lucene.search.IndexSearcher;
+import com.lucene.search.Query;
+
+/* Deletions by term and by query, held until they are applied to a segment.
+   Each has a limit: only documents numbered below it are deleted, so that a
+   deletion made while documents are buffered spares those added after it.
+   Documents may also be deleted by number, e.g. one that failed to be
+   buffered, when the deletions are for a single segment. */
+final class BufferedDeletes {
+    private Hashtable terms = new Hashtable();      // Term -> Integer limit
+    private Vector queries = new Vector();
+    private Vector queryLimits = new Vector();
+    private Vector docs = new Vector();          // Integer document numbers
+
+    final void addTerm(Term term, int limit) {
+        Integer old = (Integer) terms.get(term);
+        if (old == null || old.intValue() < limit)  // the later covers more
+            terms.put(term, Integer.valueOf(limit));
+    }
+
+    final void addQuery(Query query, int limit) {
+        queries.addElement(query);
+        queryLimits.addElement(Integer.valueOf(limit));
+    }
+
+    final void addDoc(int doc) {
+        docs.addElement(Integer.valueOf(doc));
+    }
+
+    /**
+     * Adds the deletions of another, without limits.  Deletions by number
+     * are not added, as they number the documents of another segment.
+     */
+    final void addAll(BufferedDeletes other) {
+        Enumeration e = other.terms.keys();
+        while (e.hasMoreElements())
+            addTerm((Term) e.nextElement(), Integer.MAX_VALUE);
+        for (int i = 0; i < other.queries.size(); i++)
+            addQuery((Query) other.queries.elementAt(i), Integer.MAX_VALUE);
+    }
+
+    final int size() {
+        return terms.size() + queries.size() + docs.size();
+    }
+
+    final void clear() {
+        terms.clear();
+        queries.removeAllElements();
+        queryLimits.removeAllElements();
+        docs.removeAllElements();
+    }
+
+    /**
+     * Deletes the matching documents of a segment and writes the segment's
+     * new deletions generation to <code>si</code>, which must be the info the
+     * reader was opened with.  Returns the name of the superseded deletions
+     * file, or null.
+     */
+    final String apply(SegmentInfo si) throws IOException {
+        SegmentReader reader = new SegmentReader(si);
+        try {
+            applyTo(reader);
+            if (reader.hasPendingDeletions())
+                return reader.writeDeletions(si);
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Deletes the matching documents in a reader, without committing.
+     */
+    final void applyTo(final SegmentReader reader) throws IOException {
+        Enumeration e = terms.keys();
+        while (e.hasMoreElements()) {
+            Term term = (Term) e.nextElement();
+            int limit = ((Integer) terms.get(term)).intValue();
+            TermDocs docs = reader.termDocs(term);
+            if (docs == null)
+                continue;
+            try {
+                while (docs.next() && docs.doc() < limit)
+                    reader.delete(docs.doc());
+            } finally {
+                docs.close();
+            }
+        }
+
+        if (queries.size() > 0) {
+            IndexSearcher searcher = new IndexSearcher(reader); // not closed
+            for (int i = 0; i < queries.size(); i++) {
+                final int limit = ((Integer) queryLimits.elementAt(i)).intValue();
+                searcher.search((Query) queries.elementAt(i), new HitCollector() {
+                    public final void collect(int doc, float score) {
+                        if (doc < limit)
+                            reader.delete(doc);
+                    }
+                });
+            }
+        }
+
+        for (int i = 0; i < docs.size(); i++)
+            reader.delete(((Integer) docs.elementAt(i)).intValue());
+    }
+}
@@ -0,0 +1,142 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import com.lucene.store.Directory;
+import com.lucene.store.InputStream;
+import com.lucene.store.OutputStream;
+
+/**
+ * A read-only Directory of the files within a compound file written by
+ * {@link CompoundFileWriter}.  The compound file is opened once; each sub-file
+ * stream reads through its own clone of it.
+ */
+
+final class CompoundFileReader extends Directory {
+    private Directory directory;
+    private String fileName;
+    private InputStream stream;
+    private Hashtable entries = new Hashtable();
+
+    /* The location of a sub-file within the compound file. */
+    private static final class FileEntry {
+        long offset;
+        long length;
+    }
+
+    CompoundFileReader(Directory dir, String name) throws IOException {
+        directory = dir;
+        fileName = name;
+
+        stream = dir.openFile(name);
+        try {
+            int count = stream.readVInt();
+            FileEntry entry = null;
+            for (int i = 0; i < count; i++) {
+                long offset = stream.readLong();
+                String id = stream.readString();
+                if (entry != null)              // previous ends where this starts
+                    entry.length = offset - entry.offset;
+                entry = new FileEntry();
+                entry.offset = offset;
+                entries.put(id, entry);
+            }
+            if (entry != null)                  // last runs to end of file
+                entry.length = stream.length() - entry.offset;
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    public final String[] list() {
+        String[] result = new String[entries.size()];
+        int i = 0;
+        Enumeration names = entries.keys();
+        while (names.hasMoreElements())
+            result[i++] = (String) names.nextElement();
+        return result;
+    }
+
+    public final boolean fileExists(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Returns the time the compound file was last modified.
+     */
+    public final long fileModified(String name) throws IOException {
+        return directory.fileModified(fileName);
+    }
+
+    public final long fileLength(String name) throws IOException {
+        FileEntry entry = (FileEntry) entries.get(name);
+        if (entry == null)
+            throw new IOException("no sub-file " + name + " in " + fileName);
+        return entry.length;
+    }
+
+    public final InputStream openFile(String name) throws IOException {
+        FileEntry entry = (FileEntry) entries.get(name);
+        if (entry == null)
+            throw new IOException("no sub-file " + name + " in " + fileName);
+        return new CompoundFileInputStream((InputStream) stream.clone(),
+                entry.offset, entry.length);
+    }
+
+    public final void deleteFile(String name) {
+        throw new UnsupportedOperationException("compound files are read-only");
+    }
+
+    public final void renameFile(String from, String to) {
+        throw new UnsupportedOperationException("compound files are read-only");
+    }
+
+    public final OutputStream createFile(String name) {
+        throw new UnsupportedOperationException("compound files are read-only");
+    }
+
+    /**
+     * Closes the compound file.  Sub-file streams must be closed first.
+     */
+    public final void close() throws IOException {
+        stream.close();
+    }
+}
+
+
+final class CompoundFileInputStream extends InputStream {
+    private InputStream base;                  // a clone of the compound file
+    private long fileOffset;
+
+    CompoundFileInputStream(InputStream base, long fileOffset, long length) {
+        this.base = base;
+        this.fileOffset = fileOffset;
+        this.length = length;
+    }
+
+    protected final void readInternal(byte[] b, int offset, int len)
+            throws IOException {
+        long start = getFilePointer();
+        if (start + len > length)
+            throw new IOException("read past EOF");
+        base.seek(fileOffset + start);
+        base.readBytes(b, offset, len);
+    }
+
+    protected final void seekInternal(long pos) {
+        // base is positioned by readInternal()
+    }
+
+    public final void close() throws IOException {
+        base.close();
+    }
+
+    public Object clone() {
+        CompoundFileInputStream clone = (CompoundFileInputStream) super.clone();
+        clone.base = (InputStream) base.clone();
+        return clone;
+    }
+}
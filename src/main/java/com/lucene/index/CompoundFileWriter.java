@@ -0,0 +1,85 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import com.lucene.store.Directory;
+import com.lucene.store.InputStream;
+import com.lucene.store.OutputStream;
+
+/**
+ * Combines the files of a segment into a single compound file, read by
+ * {@link CompoundFileReader}.  The format is:
+ * <pre>
+ *   count:VInt &lt;offset:Long, name:String&gt;<sup>count</sup> &lt;data&gt;<sup>count</sup>
+ * </pre>
+ * where each offset is the position of a file's data in the compound file.
+ */
+
+final class CompoundFileWriter {
+    private Directory directory;
+    private String fileName;
+    private Vector names = new Vector();
+
+    CompoundFileWriter(Directory dir, String name) {
+        directory = dir;
+        fileName = name;
+    }
+
+    /**
+     * Adds a file of the directory to those to be combined.
+     */
+    final void addFile(String name) {
+        if (names.contains(name))
+            throw new IllegalArgumentException("file " + name + " already added");
+        names.addElement(name);
+    }
+
+    /**
+     * Writes the compound file.  The added files are not deleted.
+     */
+    final void close() throws IOException {
+        OutputStream output =
+                directory.createFile(fileName, SegmentMerger.MERGE_BUFFER_SIZE);
+        try {
+            output.writeVInt(names.size());
+
+            long[] offsetPointers = new long[names.size()];
+            for (int i = 0; i < names.size(); i++) {  // leave space for offsets
+                offsetPointers[i] = output.getFilePointer();
+                output.writeLong(0);
+                output.writeString((String) names.elementAt(i));
+            }
+
+            long[] offsets = new long[names.size()];
+            byte[] buffer = new byte[SegmentMerger.MERGE_BUFFER_SIZE];
+            for (int i = 0; i < names.size(); i++) {  // copy data
+                offsets[i] = output.getFilePointer();
+                copyFile((String) names.elementAt(i), output, buffer);
+            }
+
+            for (int i = 0; i < names.size(); i++) {  // fill in offsets
+                output.seek(offsetPointers[i]);
+                output.writeLong(offsets[i]);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    private final void copyFile(String name, OutputStream output, byte[] buffer)
+            throws IOException {
+        InputStream input = directory.openFile(name);
+        try {
+            long length = input.length();
+            for (long pos = 0; pos < length; ) {
+                int len = (int) Math.min(length - pos, buffer.length);
+                input.readBytes(buffer, 0, len);
+                output.writeBytes(buffer, 0, len);
+                pos += len;
+            }
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Vector;
+
+/**
+ * Runs merges in background threads, so that adding documents does not wait
+ * for them.  Threads are started as merges are selected, up to
+ * {@link #maxThreadCount}, and exit when no merges remain.  Only when more
+ * than {@link #maxMergeCount} merges are pending or running does a thread
+ * that selects merges wait, so that indexing cannot outpace merging
+ * indefinitely.
+ *
+ * <p>An exception thrown by a background merge is rethrown by the next call
+ * to {@link #merge} or {@link #close}.
+ */
+
+public class ConcurrentMergeScheduler extends MergeScheduler {
+    /**
+     * The largest number of merges run at once.  The default is half the
+     * number of processors, but at least one and at most four.
+     */
+    public int maxThreadCount =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    /**
+     * The largest number of pending and running merges before threads
+     * selecting further merges wait.  The default is {@link #maxThreadCount}
+     * plus two.
+     */
+    public int maxMergeCount = maxThreadCount + 2;
+
+    private Vector threads = new Vector();
+    private Throwable exception = null;
+
+    public synchronized void merge(IndexWriter writer) throws IOException {
+        checkException();
+        for (; ; ) {
+            while (threads.size() < maxThreadCount && writer.numPendingMerges() > 0) {
+                MergeThread thread = new MergeThread(writer);
+                threads.addElement(thread);
+                thread.start();
+            }
+            if (writer.numMerges() <= maxMergeCount)
+                break;
+            waitForThreads();                  // back-pressure
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        while (threads.size() > 0)
+            waitForThreads();
+        checkException();
+    }
+
+    private final void waitForThreads() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private final void checkException() throws IOException {
+        if (exception != null) {
+            Throwable e = exception;
+            exception = null;
+            throw new IOException("background merge failed: " + e);
+        }
+    }
+
+    private final class MergeThread extends Thread {
+        private IndexWriter writer;
+
+        MergeThread(IndexWriter writer) {
+            this.writer = writer;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                for (; ; ) {
+                    OneMerge merge;
+                    // exit atomically with finding no merge, so that merge()
+                    // starts a new thread for any merge selected afterwards
+                    synchronized (ConcurrentMergeScheduler.this) {
+                        merge = writer.getNextMerge();
+                        if (merge == null) {
+                            threads.removeElement(this);
+                            ConcurrentMergeScheduler.this.notifyAll();
+                            return;
+                        }
+                    }
+                    writer.merge(merge);
+                    synchronized (ConcurrentMergeScheduler.this) {
+                        ConcurrentMergeScheduler.this.notifyAll();
+                    }
+                }
+            } catch (Throwable e) {
+                synchronized (ConcurrentMergeScheduler.this) {
+                    exception = e;
+                    threads.removeElement(this);
+                    ConcurrentMergeScheduler.this.notifyAll();
+                }
+            }
+        }
+    }
+}
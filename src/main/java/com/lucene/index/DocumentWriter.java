@@ -3,7 +3,6 @@ package com.lucene.index;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.Hashtable;
 import java.util.Enumeration;
 
 import com.lucene.document.Document;
@@ -13,13 +12,41 @@ import com.lucene.analysis.TokenStream;
 import com.lucene.analysis.Token;
 import com.lucene.store.Directory;
 import com.lucene.store.OutputStream;
+import com.lucene.search.Query;
 import com.lucene.search.Similarity;
 
+/**
+ * Buffers documents in memory until they are flushed as a single segment.
+ * Stored fields are written to the segment's files as each document is
+ * added; postings are accumulated as encoded bytes per term and norms as a
+ * byte per document and field, so that no per-document segments are written
+ * and merged.
+ * <p>
+ * Terms are numbered as they are first seen and their state is held in
+ * arrays indexed by that number.  Their texts are appended to shared blocks
+ * of chars, their encoded docs and positions to slices of shared blocks of
+ * bytes, and they are found through an open-addressing table per field, so
+ * that no objects are allocated per term.
+ */
 final class DocumentWriter {
     private Analyzer analyzer;
     private Directory directory;
     private FieldInfos fieldInfos;
-    private int maxFieldLength;
+    int maxFieldLength;
+
+    private String segment;                  // segment being buffered
+    private int numDocs;                      // docs buffered in it
+    private FieldsWriter fieldsWriter;
+    private byte[][] norms = new byte[0][];      // by field number, then doc
+    private long ramUsed;
+    boolean busy;                      // in use by a thread
+
+    /* Heap cost of a buffered term, beyond its text and postings: its
+       entries in the arrays below and in its field's table. */
+    private static final int TERM_RAM = 10 * 4 + 2 * 4;
+
+    /* Rough heap cost of a buffered deletion. */
+    private static final int DELETE_RAM = 100;
 
     DocumentWriter(Directory d, Analyzer a, int mfl) {
         directory = d;
@@ -28,6 +55,52 @@ final class DocumentWriter {
     }
 
     /**
+     * Returns the name of the segment being buffered, or null if no
+     * documents are buffered.
+     */
+    final String segment() {
+        return segment;
+    }
+
+    /**
+     * Returns the number of documents buffered.
+     */
+    final int numDocs() {
+        return numDocs;
+    }
+
+    /**
+     * Returns an estimate of the memory used by buffered documents.
+     */
+    final long ramUsed() {
+        return ramUsed + slices.ramUsed();
+    }
+
+    // Deletions made while documents are buffered, limited to those docs.
+    private final BufferedDeletes deletes = new BufferedDeletes();
+
+    /**
+     * Deletes the buffered documents containing a term when they are
+     * flushed.  Documents buffered later are not deleted.
+     */
+    final void deleteDocuments(Term term) {
+        deletes.addTerm(term, numDocs);
+        ramUsed += DELETE_RAM + 2 * term.text.length();
+    }
+
+    /**
+     * Deletes the buffered documents matching a query when they are
+     * flushed.  Documents buffered later are not deleted.
+     */
+    final void deleteDocuments(Query query) {
+        deletes.addQuery(query, numDocs);
+        ramUsed += DELETE_RAM;
+    }
+
+    /**
+     * Buffers a document.  The first document after a flush starts a new
+     * segment with the given name; subsequent names are ignored until the
+     * next flush.
      *
      * @param segment
      * @param doc
@@ -35,75 +108,98 @@ final class DocumentWriter {
      */
     final void addDocument(String segment, Document doc)
             throws IOException {
+        addDocument(segment, doc, null);
+    }
+
+    /**
+     * Buffers a document whose tokenized fields have already been analyzed,
+     * or, if <code>analyzed</code> is null, analyzes them now.
+     */
+    final void addDocument(String segment, Document doc,
+                           AnalyzedDocument analyzed) throws IOException {
+        if (this.segment == null) {
+            this.segment = segment;
+            fieldInfos = new FieldInfos();
+        }
+
         /**
-         * .fnm文件内容
+         * .fnm文件内容, written at flush
          *
-         * size() 每个doc总的Field数
-         * name:isIndexed
-         * name:isIndexed
+         * size() 所有doc的Field数
+         * name:flags
+         * name:flags
          * ...:...
          */
-        fieldInfos = new FieldInfos();
         fieldInfos.add(doc);
-        fieldInfos.write(directory, segment + ".fnm");
 
         /**
          * write field values
          * 仅仅针对于isStored为true的Field.
          */
-        FieldsWriter fieldsWriter = new FieldsWriter(directory, segment, fieldInfos);
-        try {
-            fieldsWriter.addDocument(doc);
-        } finally {
-            fieldsWriter.close();
-        }
+        if (fieldsWriter == null)
+            fieldsWriter = new FieldsWriter(directory, this.segment, fieldInfos);
+        fieldsWriter.addDocument(doc);
 
         /**
-         * invert doc into postingTable
+         * invert doc into postingTables
          *
-         * generate hashmap &lt;term, posting>
+         * per field, hashmap &lt;text, posting>
          *
-         * Posting:: &lt;term, tf, position&gt;
+         * Posting:: &lt;term, df, encoded docs, encoded positions&gt;
          *
          */
-        postingTable.clear();
         fieldLengths = new int[fieldInfos.size()];
-        invertDocument(doc);
-
-        // sort postingTable into an array
-        Posting[] postings = sortPostingTable();
-
-        /**
-         * write postings
-         *
-         * .frq
-         * .prx
-         *
-         */
-        writePostings(postings, segment);
-
-        /**
-         * write norms of indexed fields
-         *
-         * .fxxx文件
-         *
-         */
-        writeNorms(doc, segment);
-
+        boolean success = false;
+        try {
+            invertDocument(doc, analyzed);
+            addNorms(doc);
+            success = true;
+        } finally {
+            if (!success)                  // partly inverted: delete at flush
+                deletes.addDoc(numDocs);
+            numDocs++;                      // stored fields were written
+        }
     }
 
-    // Keys are Terms, values are Postings.
-    // Used to buffer a document before it is written to the index.
-    private final Hashtable postingTable = new Hashtable();
+    // Term texts, which never span blocks.  A text is addressed by its
+    // block number shifted left by CHAR_BLOCK_SHIFT plus its offset.
+    private static final int CHAR_BLOCK_SHIFT = 14;
+    private static final int CHAR_BLOCK_SIZE = 1 << CHAR_BLOCK_SHIFT;
+    private static final int CHAR_BLOCK_MASK = CHAR_BLOCK_SIZE - 1;
+    private char[][] charBlocks = new char[0][];
+    private int numCharBlocks = 0;
+    private int charUpto = CHAR_BLOCK_SIZE;      // in the last block
+
+    // Encoded docs and positions of each term, as chains of slices.
+    private final ByteSlicePool slices = new ByteSlicePool();
+
+    // By term number.
+    private int numTerms = 0;
+    private int[] textStarts = new int[0];
+    private int[] textLengths;
+    private int[] docFreqs;              // number of docs containing it
+    private int[] lastDocs;              // last doc it occurs in
+    private int[] termFreqs;              // its frequency in lastDoc
+    private int[] lastDocsCoded;              // doc of the last encoded entry
+    private int[] freqStarts, freqUptos;          // slice chain in .frq format
+    private int[] proxStarts, proxUptos;          // slice chain in .prx format
+
+    // By field number, open-addressing tables of term numbers plus one.
+    private int[][] termTables = new int[0][];
+    private int[] tableCounts = new int[0];
+
     private int[] fieldLengths;
+    private final Token token = new Token();      // re-used for all terms
 
     /**
-     * Tokenizes the fields of a document into Postings.
+     * Tokenizes the fields of a document into postings.
      *
      * @param doc
+     * @param analyzed the terms of its tokenized fields, or null
      * @throws IOException
      */
-    private final void invertDocument(Document doc) throws IOException {
+    private final void invertDocument(Document doc, AnalyzedDocument analyzed)
+            throws IOException {
         Enumeration fields = doc.fields();
         while (fields.hasMoreElements())
         {
@@ -112,28 +208,35 @@ final class DocumentWriter {
             int fieldNumber = fieldInfos.fieldNumber(fieldName);
 
             int position = fieldLengths[fieldNumber];      // position in field
+            boolean omitPositions = fieldInfos.fieldInfo(fieldNumber).omitPositions;
 
             if (field.isIndexed()) {
                 if (!field.isTokenized())
                 {
-                    addPosition(fieldName, field.stringValue(), position++);
+                    token.setTermText(field.stringValue());
+                    addPosition(fieldNumber, token, position++, omitPositions);
                 }
                 else
                 {
-                    Reader reader;              // find or make Reader
-                    if (field.readerValue() != null)
-                        reader = field.readerValue();
-                    else if (field.stringValue() != null)
-                        reader = new StringReader(field.stringValue());
-                    else
-                        throw new IllegalArgumentException("field must have either String or Reader value");
-
-                    // Tokenize field and add to postingTable
-                    TokenStream stream = analyzer.tokenStream(reader);
+                    TokenStream stream;
+                    if (analyzed != null) {          // replay its terms
+                        stream = analyzed.nextStream();
+                    } else {
+                        Reader reader;              // find or make Reader
+                        if (field.readerValue() != null)
+                            reader = field.readerValue();
+                        else if (field.stringValue() != null)
+                            reader = new StringReader(field.stringValue());
+                        else
+                            throw new IllegalArgumentException("field must have either String or Reader value");
+
+                        // Tokenize field and add to postingTables
+                        stream = analyzer.reusableTokenStream(reader);
+                    }
                     try {
-                        for (Token t = stream.next(); t != null; t = stream.next())
+                        for (Token t = stream.next(token); t != null; t = stream.next(token))
                         {
-                            addPosition(fieldName, t.termText(), position++);
+                            addPosition(fieldNumber, t, position++, omitPositions);
 
                             if (position > maxFieldLength)
                                 break;
@@ -149,70 +252,315 @@ final class DocumentWriter {
         }
     }
 
-    private final Term termBuffer = new Term("", ""); // avoid consing
-
     /**
-     * @param field
-     * @param text
+     * @param fieldNumber
+     * @param t
      * @param position
+     * @param omitPositions true if the field stores no positions
      */
-    private final void addPosition(String field, String text, int position)
+    private final void addPosition(int fieldNumber, Token t, int position,
+                                   boolean omitPositions)
     {
-        termBuffer.set(field, text);
-        Posting ti = (Posting) postingTable.get(termBuffer);
-        if (ti != null) {                  // word seen before
-            int freq = ti.freq;
-            if (ti.positions.length == freq) {      // positions array is full
-                int[] newPositions = new int[freq * 2];      // double size
-                int[] positions = ti.positions;
-                for (int i = 0; i < freq; i++)          // copy old positions to new
-                    newPositions[i] = positions[i];
-                ti.positions = newPositions;
+        char[] text = t.termBuffer();
+        int length = t.termLength();
+
+        int[] table = termTable(fieldNumber);
+        int mask = table.length - 1;
+        int slot = hashCode(text, 0, length) & mask;
+        int term;
+        while ((term = table[slot] - 1) >= 0 && !textEquals(term, text, length))
+            slot = (slot + 1) & mask;              // linear probing
+
+        if (term < 0) {                  // new word
+            term = addTerm(text, length);
+            table[slot] = term + 1;
+            if (++tableCounts[fieldNumber] * 2 > table.length)
+                rehash(fieldNumber);              // keep half empty
+        } else if (lastDocs[term] != numDocs) {      // word seen in an earlier doc
+            finishDoc(term);
+            docFreqs[term]++;
+            lastDocs[term] = numDocs;
+        }
+        if (!omitPositions)
+            proxUptos[term] = slices.writeVInt(proxUptos[term], position); // absolute positions
+        termFreqs[term]++;
+    }
+
+    private final int addTerm(char[] text, int length) {
+        if (numTerms == textStarts.length)
+            growTerms();
+        int term = numTerms++;
+
+        if (charUpto + length > CHAR_BLOCK_SIZE)
+            nextCharBlock(length);
+        System.arraycopy(text, 0, charBlocks[numCharBlocks - 1], charUpto, length);
+        textStarts[term] = ((numCharBlocks - 1) << CHAR_BLOCK_SHIFT) + charUpto;
+        textLengths[term] = length;
+        charUpto += length;
+
+        docFreqs[term] = 1;
+        lastDocs[term] = numDocs;
+        termFreqs[term] = 0;
+        lastDocsCoded[term] = 0;
+        freqStarts[term] = freqUptos[term] = slices.newSlice();
+        proxStarts[term] = proxUptos[term] = slices.newSlice();
+        return term;
+    }
+
+    /* Encodes the entry of a term's last doc. */
+    private final void finishDoc(int term) {
+        int freq = termFreqs[term];
+        if (freq == 0)
+            return;
+        int docCode = (lastDocs[term] - lastDocsCoded[term]) << 1;  // use low bit to flag freq=1
+        lastDocsCoded[term] = lastDocs[term];
+        if (freq == 1) {
+            freqUptos[term] = slices.writeVInt(freqUptos[term], docCode | 1);
+        } else {
+            freqUptos[term] = slices.writeVInt(freqUptos[term], docCode);
+            freqUptos[term] = slices.writeVInt(freqUptos[term], freq);
+        }
+        termFreqs[term] = 0;
+    }
+
+    private final void nextCharBlock(int length) {
+        if (numCharBlocks == charBlocks.length) {
+            char[][] newBlocks = new char[Math.max(4, charBlocks.length * 2)][];
+            System.arraycopy(charBlocks, 0, newBlocks, 0, numCharBlocks);
+            charBlocks = newBlocks;
+        }
+        char[] block = charBlocks[numCharBlocks];
+        if (block == null || block.length < length) {
+            block = new char[Math.max(length, CHAR_BLOCK_SIZE)]; // huge terms get their own
+            charBlocks[numCharBlocks] = block;
+        }
+        numCharBlocks++;
+        charUpto = 0;
+        ramUsed += 2 * block.length;
+    }
+
+    private final void growTerms() {
+        int size = Math.max(64, textStarts.length * 2);
+        textStarts = grow(textStarts, size);
+        textLengths = grow(textLengths, size);
+        docFreqs = grow(docFreqs, size);
+        lastDocs = grow(lastDocs, size);
+        termFreqs = grow(termFreqs, size);
+        lastDocsCoded = grow(lastDocsCoded, size);
+        freqStarts = grow(freqStarts, size);
+        freqUptos = grow(freqUptos, size);
+        proxStarts = grow(proxStarts, size);
+        proxUptos = grow(proxUptos, size);
+        ramUsed += (size - numTerms) * TERM_RAM;
+    }
+
+    private final int[] grow(int[] array, int size) {
+        int[] newArray = new int[size];
+        if (array != null)
+            System.arraycopy(array, 0, newArray, 0, numTerms);
+        return newArray;
+    }
+
+    private final int[] termTable(int fieldNumber) {
+        if (termTables.length <= fieldNumber) {
+            int[][] newTables = new int[fieldInfos.size()][];
+            System.arraycopy(termTables, 0, newTables, 0, termTables.length);
+            termTables = newTables;
+            int[] newCounts = new int[fieldInfos.size()];
+            System.arraycopy(tableCounts, 0, newCounts, 0, tableCounts.length);
+            tableCounts = newCounts;
+        }
+        if (termTables[fieldNumber] == null)
+            termTables[fieldNumber] = new int[16];
+        return termTables[fieldNumber];
+    }
+
+    private final void rehash(int fieldNumber) {
+        int[] oldTable = termTables[fieldNumber];
+        int[] table = new int[oldTable.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            int term = oldTable[i] - 1;
+            if (term >= 0) {
+                int start = textStarts[term];
+                int slot = hashCode(charBlocks[start >>> CHAR_BLOCK_SHIFT],
+                        start & CHAR_BLOCK_MASK, textLengths[term]) & mask;
+                while (table[slot] != 0)
+                    slot = (slot + 1) & mask;
+                table[slot] = term + 1;
             }
-            ti.positions[freq] = position;          // add new position
-            ti.freq = freq + 1;              // update frequency
         }
-        else
-        {
-            Term term = new Term(field, text, false);
-            postingTable.put(term, new Posting(term, position));
+        termTables[fieldNumber] = table;
+        ramUsed += 4 * (table.length - oldTable.length);
+    }
+
+    private static final int hashCode(char[] text, int offset, int length) {
+        int code = 0;
+        for (int i = offset; i < offset + length; i++)
+            code = 31 * code + text[i];
+        return code ^ (code >>> 16);
+    }
+
+    private final boolean textEquals(int term, char[] text, int length) {
+        if (textLengths[term] != length)
+            return false;
+        int start = textStarts[term];
+        char[] block = charBlocks[start >>> CHAR_BLOCK_SHIFT];
+        int offset = start & CHAR_BLOCK_MASK;
+        for (int i = 0; i < length; i++)
+            if (block[offset + i] != text[i])
+                return false;
+        return true;
+    }
+
+    /* Compares the texts of two terms as String.compareTo would. */
+    private final int compareText(int a, int b) {
+        int startA = textStarts[a], startB = textStarts[b];
+        char[] blockA = charBlocks[startA >>> CHAR_BLOCK_SHIFT];
+        char[] blockB = charBlocks[startB >>> CHAR_BLOCK_SHIFT];
+        int offsetA = startA & CHAR_BLOCK_MASK, offsetB = startB & CHAR_BLOCK_MASK;
+        int lengthA = textLengths[a], lengthB = textLengths[b];
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; i++) {
+            int c = blockA[offsetA + i] - blockB[offsetB + i];
+            if (c != 0)
+                return c;
+        }
+        return lengthA - lengthB;
+    }
+
+    private final String text(int term) {
+        int start = textStarts[term];
+        return new String(charBlocks[start >>> CHAR_BLOCK_SHIFT],
+                start & CHAR_BLOCK_MASK, textLengths[term]);
+    }
+
+    /* Records the norm of each indexed field of the current document.  The
+       norms of documents without the field remain zero. */
+    private final void addNorms(Document doc) {
+        if (norms.length < fieldInfos.size()) {
+            byte[][] newNorms = new byte[fieldInfos.size()][];
+            System.arraycopy(norms, 0, newNorms, 0, norms.length);
+            norms = newNorms;
+        }
+        Enumeration fields = doc.fields();
+        while (fields.hasMoreElements()) {
+            Field field = (Field) fields.nextElement();
+            if (field.isIndexed()) {
+                int fieldNumber = fieldInfos.fieldNumber(field.name());
+                byte[] fieldNorms = norms[fieldNumber];
+                if (fieldNorms == null || fieldNorms.length <= numDocs) {
+                    byte[] newNorms = new byte[Math.max(numDocs + 1, numDocs * 2)];
+                    if (fieldNorms != null)
+                        System.arraycopy(fieldNorms, 0, newNorms, 0, fieldNorms.length);
+                    ramUsed += newNorms.length - (fieldNorms == null ? 0 : fieldNorms.length);
+                    norms[fieldNumber] = fieldNorms = newNorms;
+                }
+                fieldNorms[numDocs] = Similarity.norm(fieldLengths[fieldNumber]);
+            }
         }
     }
 
-    private final Posting[] sortPostingTable() {
-        // copy postingTable into an array
-        Posting[] array = new Posting[postingTable.size()];
-        Enumeration postings = postingTable.elements();
-        for (int i = 0; postings.hasMoreElements(); i++)
-            array[i] = (Posting) postings.nextElement();
+    /**
+     * Writes the buffered documents as a segment, optionally packed in a
+     * compound file, with the deletions made while they were buffered, and
+     * clears the buffer.  Returns the new segment's info,
+     * or null if no documents are buffered.
+     */
+    final SegmentInfo flush(boolean useCompoundFile) throws IOException {
+        if (segment == null)
+            return null;
+        SegmentInfo info = new SegmentInfo(segment, numDocs, directory);
+        info.isCompoundFile = useCompoundFile;
+        try {
+            fieldInfos.write(directory, segment + ".fnm");
+            fieldsWriter.close();
+            fieldsWriter = null;
+
+            /**
+             * write postings
+             *
+             * .tis, .tii
+             * .frq
+             * .prx
+             *
+             */
+            writePostings(segment);
+
+            /**
+             * write norms of indexed fields
+             *
+             * .fxxx文件
+             *
+             */
+            writeNorms(segment);
+
+            if (useCompoundFile)
+                SegmentMerger.createCompoundFile(directory, segment, fieldInfos);
+
+            if (deletes.size() > 0)
+                deletes.apply(info);              // a new segment: none superseded
+        } finally {
+            reset();
+        }
+        return info;
+    }
 
-        // sort the array
-        quickSort(array, 0, array.length - 1);
+    private final void reset() throws IOException {
+        if (fieldsWriter != null) {          // flush failed
+            fieldsWriter.close();
+            fieldsWriter = null;
+        }
+        numTerms = 0;                      // arrays are dropped, blocks kept
+        textStarts = new int[0];
+        termTables = new int[0][];
+        tableCounts = new int[0];
+        numCharBlocks = 0;
+        charUpto = CHAR_BLOCK_SIZE;
+        for (int i = 0; i < charBlocks.length; i++)
+            if (charBlocks[i] != null && charBlocks[i].length > CHAR_BLOCK_SIZE)
+                charBlocks[i] = null;              // huge term
+        slices.reset();
+        deletes.clear();
+        norms = new byte[0][];
+        segment = null;
+        numDocs = 0;
+        ramUsed = 0;
+    }
 
-        return array;
+    /* Returns the numbers of a field's terms, sorted by text. */
+    private final int[] sortedTerms(int fieldNumber) {
+        int[] table = termTables[fieldNumber];
+        int[] terms = new int[tableCounts[fieldNumber]];
+        int upto = 0;
+        for (int i = 0; i < table.length; i++)
+            if (table[i] != 0)
+                terms[upto++] = table[i] - 1;
+        quickSort(terms, 0, terms.length - 1);
+        return terms;
     }
 
-    static private final void quickSort(Posting[] postings, int lo, int hi) {
+    private final void quickSort(int[] terms, int lo, int hi) {
         if (lo >= hi)
             return;
 
-        int mid = (lo + hi) / 2;
+        int mid = (lo + hi) >>> 1;
 
-        if (postings[lo].term.compareTo(postings[mid].term) > 0) {
-            Posting tmp = postings[lo];
-            postings[lo] = postings[mid];
-            postings[mid] = tmp;
+        if (compareText(terms[lo], terms[mid]) > 0) {
+            int tmp = terms[lo];
+            terms[lo] = terms[mid];
+            terms[mid] = tmp;
         }
 
-        if (postings[mid].term.compareTo(postings[hi].term) > 0) {
-            Posting tmp = postings[mid];
-            postings[mid] = postings[hi];
-            postings[hi] = tmp;
+        if (compareText(terms[mid], terms[hi]) > 0) {
+            int tmp = terms[mid];
+            terms[mid] = terms[hi];
+            terms[hi] = tmp;
 
-            if (postings[lo].term.compareTo(postings[mid].term) > 0) {
-                Posting tmp2 = postings[lo];
-                postings[lo] = postings[mid];
-                postings[mid] = tmp2;
+            if (compareText(terms[lo], terms[mid]) > 0) {
+                int tmp2 = terms[lo];
+                terms[lo] = terms[mid];
+                terms[mid] = tmp2;
             }
         }
 
@@ -222,59 +570,81 @@ final class DocumentWriter {
         if (left >= right)
             return;
 
-        Term partition = postings[mid].term;
+        int partition = terms[mid];
 
         for (; ; ) {
-            while (postings[right].term.compareTo(partition) > 0)
+            while (compareText(terms[right], partition) > 0)
                 --right;
 
-            while (left < right && postings[left].term.compareTo(partition) <= 0)
+            while (left < right && compareText(terms[left], partition) <= 0)
                 ++left;
 
             if (left < right) {
-                Posting tmp = postings[left];
-                postings[left] = postings[right];
-                postings[right] = tmp;
+                int tmp = terms[left];
+                terms[left] = terms[right];
+                terms[right] = tmp;
                 --right;
             } else {
                 break;
             }
         }
 
-        quickSort(postings, lo, left);
-        quickSort(postings, left + 1, hi);
+        quickSort(terms, lo, left);
+        quickSort(terms, left + 1, hi);
     }
 
-    private final void writePostings(Posting[] postings, String segment)
-            throws IOException {
+    /* Returns the numbers of the fields with terms, sorted by name. */
+    private final int[] sortedFields() {
+        int[] fields = new int[termTables.length];
+        int n = 0;
+        for (int i = 0; i < termTables.length; i++) {
+            if (termTables[i] == null)
+                continue;
+            String name = fieldInfos.fieldName(i);
+            int j = n++;
+            while (j > 0 && fieldInfos.fieldName(fields[j - 1]).compareTo(name) > 0) {
+                fields[j] = fields[j - 1];          // insertion sort
+                j--;
+            }
+            fields[j] = i;
+        }
+        int[] result = new int[n];
+        System.arraycopy(fields, 0, result, 0, n);
+        return result;
+    }
+
+    private final void writePostings(String segment) throws IOException {
         OutputStream freq = null, prox = null;
         TermInfosWriter tis = null;
 
         try {
-            freq = directory.createFile(segment + ".frq");
-            prox = directory.createFile(segment + ".prx");
+            freq = directory.createFile(segment + ".frq", SegmentMerger.MERGE_BUFFER_SIZE);
+            prox = directory.createFile(segment + ".prx", SegmentMerger.MERGE_BUFFER_SIZE);
             tis = new TermInfosWriter(directory, segment, fieldInfos);
             TermInfo ti = new TermInfo();
 
-            for (int i = 0; i < postings.length; i++) {
-                Posting posting = postings[i];
-
-                // add an entry to the dictionary with pointers to prox and freq files
-                ti.set(1, freq.getFilePointer(), prox.getFilePointer());
-                tis.add(posting.term, ti);
-
-                // add an entry to the freq file
-                int f = posting.freq;
-                if (f == 1)                  // optimize freq=1
-                    freq.writeVInt(1);              // set low bit of doc num.
-                else {
-                    freq.writeVInt(0);              // the document number
-                    freq.writeVInt(f);              // frequency in doc
+            int[] fields = sortedFields();
+            for (int i = 0; i < fields.length; i++) {
+                FieldInfo fi = fieldInfos.fieldInfo(fields[i]);
+                String field = fi.name;
+                int[] terms = sortedTerms(fields[i]);
+                for (int j = 0; j < terms.length; j++) {
+                    int term = terms[j];
+                    finishDoc(term);              // encode its last doc
+
+                    // add an entry to the dictionary with pointers to prox and freq files
+                    ti.set(docFreqs[term], freq.getFilePointer(), prox.getFilePointer());
+                    if (docFreqs[term] >= BlockPostings.BLOCK_SIZE || fi.omitFreqs) {
+                        writeBlockedPostings(term, freq, prox, fi);
+                        if (docFreqs[term] > SkipListWriter.SKIP_INTERVAL)
+                            ti.skipOffset = (int) (skipWriter.write(freq) - ti.freqPointer);
+                    } else {                  // copy the encoded docs and positions
+                        slices.writeTo(freq, freqStarts[term], freqUptos[term]);
+                        if (!fi.omitPositions)
+                            slices.writeTo(prox, proxStarts[term], proxUptos[term]);
+                    }
+                    tis.add(new Term(field, text(term), false), ti);
                 }
-
-                int lastPosition = 0;              // write positions
-                for (int j = 0; j < f; j++)          // use delta-encoding
-                    prox.writeVInt(posting.positions[j] - lastPosition);
             }
         } finally {
             if (freq != null) freq.close();
@@ -283,16 +653,48 @@ final class DocumentWriter {
         }
     }
 
-    private final void writeNorms(Document doc, String segment)
+    private final SkipListWriter skipWriter = new SkipListWriter();
+    private final BlockPostings blockWriter = new BlockPostings();
+    private final ByteSlicePool.SliceReader freqReader = slices.new SliceReader();
+    private final ByteSlicePool.SliceReader proxReader = slices.new SliceReader();
+
+    /* Writes a term's encoded docs document by document, packing them in
+       blocks and buffering its skip data, and copies its positions.  The
+       field's options are applied here, since a document buffered before
+       another dropped a field's positions or freqs may have encoded them. */
+    private final void writeBlockedPostings(int term, OutputStream freq,
+                                            OutputStream prox, FieldInfo fi)
             throws IOException {
-        Enumeration fields = doc.fields();
-        while (fields.hasMoreElements()) {
-            Field field = (Field) fields.nextElement();
-            if (field.isIndexed()) {
-                int fieldNumber = fieldInfos.fieldNumber(field.name());
-                OutputStream norm = directory.createFile(segment + ".f" + fieldNumber);
+        skipWriter.reset(freq.getFilePointer(), prox.getFilePointer());
+        blockWriter.reset(freq, fi.omitFreqs);
+        freqReader.init(freqStarts[term], freqUptos[term]);
+        proxReader.init(proxStarts[term], proxUptos[term]);
+        int doc = 0;
+        for (int i = docFreqs[term]; i > 0; i--) {
+            skipWriter.addDoc(doc, freq.getFilePointer(), prox.getFilePointer());
+            int docCode = freqReader.readVInt();
+            doc += docCode >>> 1;
+            int termFreq = (docCode & 1) != 0 ? 1 : freqReader.readVInt();
+            blockWriter.add(doc, termFreq);
+            if (!fi.omitPositions)
+                for (int j = termFreq; j > 0; j--)
+                    prox.writeVInt(proxReader.readVInt());
+        }
+        blockWriter.finish();
+    }
+
+    private final void writeNorms(String segment) throws IOException {
+        for (int i = 0; i < fieldInfos.size(); i++) {
+            FieldInfo fi = fieldInfos.fieldInfo(i);
+            if (fi.isIndexed && !fi.omitNorms) {
+                byte[] fieldNorms = i < norms.length ? norms[i] : null;
+                OutputStream norm = directory.createFile(segment + ".f" + i);
                 try {
-                    norm.writeByte(Similarity.norm(fieldLengths[fieldNumber]));
+                    int n = fieldNorms == null ? 0 : Math.min(fieldNorms.length, numDocs);
+                    if (n > 0)
+                        norm.writeBytes(fieldNorms, n);
+                    for (int j = n; j < numDocs; j++)  // docs without the field
+                        norm.writeByte((byte) 0);
                 } finally {
                     norm.close();
                 }
@@ -301,15 +703,182 @@ final class DocumentWriter {
     }
 }
 
-final class Posting {                  // info about a Term in a doc
-    Term term;                      // the Term
-    int freq;                      // its frequency in doc
-    int[] positions;                  // positions it occurs at
+/* Blocks of bytes holding the encoded postings of many terms, each as a
+   chain of slices.  A slice ends with a non-zero byte giving its level.
+   When a write reaches it, a larger slice is allocated, the last three
+   bytes written are moved to it, and the last four bytes of the full slice
+   are set to the address of the new one.  Unwritten bytes are zero.  An
+   address is a block number shifted left by BLOCK_SHIFT plus an offset. */
+final class ByteSlicePool {
+    private static final int BLOCK_SHIFT = 15;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private static final int[] LEVEL_SIZE = {5, 14, 20, 30, 40, 40, 80, 80, 120, 200};
+    private static final int[] NEXT_LEVEL = {1, 2, 3, 4, 5, 6, 7, 8, 9, 9};
+
+    private byte[][] blocks = new byte[0][];      // kept across resets
+    private int numBlocks = 0;                  // in use
+    private byte[] buffer;                  // the last in use
+    private int upto = BLOCK_SIZE;              // in buffer
+
+    /**
+     * Allocates a chain of slices and returns the address to write at.
+     */
+    final int newSlice() {
+        int start = allocate(LEVEL_SIZE[0]);
+        buffer[upto - 1] = 16;                  // level zero
+        return start;
+    }
+
+    /**
+     * Writes a byte at an address and returns the address of the next.
+     */
+    final int writeByte(int address, byte b) {
+        byte[] block = blocks[address >>> BLOCK_SHIFT];
+        int offset = address & BLOCK_MASK;
+        if (block[offset] != 0) {              // end of slice
+            address = nextSlice(block, offset);
+            block = blocks[address >>> BLOCK_SHIFT];
+            offset = address & BLOCK_MASK;
+        }
+        block[offset] = b;
+        return address + 1;
+    }
+
+    /**
+     * Writes an int in a variable-length format, as {@link
+     * OutputStream#writeVInt(int)} does, and returns the next address.
+     */
+    final int writeVInt(int address, int i) {
+        while ((i & ~0x7F) != 0) {
+            address = writeByte(address, (byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        return writeByte(address, (byte) i);
+    }
+
+    /**
+     * Writes the bytes of the chain starting at <code>start</code>, up to
+     * <code>end</code>, the address returned by the last write.
+     */
+    final void writeTo(OutputStream out, int start, int end) throws IOException {
+        int address = start;
+        int level = 0;
+        while (true) {
+            byte[] block = blocks[address >>> BLOCK_SHIFT];
+            int offset = address & BLOCK_MASK;
+            int size = LEVEL_SIZE[level];
+            if (end >= address && end < address + size) {  // last slice
+                out.writeBytes(block, offset, end - address);
+                return;
+            }
+            out.writeBytes(block, offset, size - 4);
+            int last = offset + size - 4;
+            address = ((block[last] & 0xff) << 24) | ((block[last + 1] & 0xff) << 16)
+                    | ((block[last + 2] & 0xff) << 8) | (block[last + 3] & 0xff);
+            level = NEXT_LEVEL[level];
+        }
+    }
+
+    /* Reads the bytes of a chain, as writeTo writes them. */
+    final class SliceReader {
+        private byte[] block;
+        private int offset;                  // next to read, in block
+        private int limit;                  // end of the slice's bytes
+        private int level;
+        private int end;                  // of the chain
+
+        final void init(int start, int end) {
+            this.end = end;
+            level = 0;
+            enter(start);
+        }
+
+        private final void enter(int address) {
+            block = blocks[address >>> BLOCK_SHIFT];
+            offset = address & BLOCK_MASK;
+            int size = LEVEL_SIZE[level];
+            if (end >= address && end < address + size)
+                limit = offset + end - address;      // last slice
+            else
+                limit = offset + size - 4;
+        }
 
-    Posting(Term t, int position) {
-        term = t;
-        freq = 1;
-        positions = new int[1];
-        positions[0] = position;
+        final byte readByte() {
+            if (offset == limit) {              // follow the link
+                int address = ((block[limit] & 0xff) << 24) | ((block[limit + 1] & 0xff) << 16)
+                        | ((block[limit + 2] & 0xff) << 8) | (block[limit + 3] & 0xff);
+                level = NEXT_LEVEL[level];
+                enter(address);
+            }
+            return block[offset++];
+        }
+
+        final int readVInt() {
+            byte b = readByte();
+            int i = b & 0x7F;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                b = readByte();
+                i |= (b & 0x7F) << shift;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Returns the number of bytes in the blocks in use.
+     */
+    final long ramUsed() {
+        return (long) numBlocks * BLOCK_SIZE;
+    }
+
+    /**
+     * Clears the blocks in use, so that they can be re-used.
+     */
+    final void reset() {
+        for (int i = 0; i < numBlocks; i++) {
+            byte[] block = blocks[i];
+            int length = i == numBlocks - 1 ? upto : BLOCK_SIZE;
+            for (int j = 0; j < length; j++)
+                block[j] = 0;
+        }
+        numBlocks = 0;
+        buffer = null;
+        upto = BLOCK_SIZE;
+    }
+
+    private final int nextSlice(byte[] block, int offset) {
+        int level = NEXT_LEVEL[block[offset] & 15];
+        int start = allocate(LEVEL_SIZE[level]);
+        buffer[upto - 1] = (byte) (16 | level);
+
+        int newOffset = start & BLOCK_MASK;      // move the last three bytes
+        buffer[newOffset] = block[offset - 3];
+        buffer[newOffset + 1] = block[offset - 2];
+        buffer[newOffset + 2] = block[offset - 1];
+
+        block[offset - 3] = (byte) (start >>> 24);  // link to the new slice
+        block[offset - 2] = (byte) (start >>> 16);
+        block[offset - 1] = (byte) (start >>> 8);
+        block[offset] = (byte) start;
+        return start + 3;
+    }
+
+    private final int allocate(int size) {
+        if (upto + size > BLOCK_SIZE) {
+            if (numBlocks == blocks.length) {
+                byte[][] newBlocks = new byte[Math.max(4, blocks.length * 2)][];
+                System.arraycopy(blocks, 0, newBlocks, 0, numBlocks);
+                blocks = newBlocks;
+            }
+            if (blocks[numBlocks] == null)
+                blocks[numBlocks] = new byte[BLOCK_SIZE];
+            buffer = blocks[numBlocks++];
+            upto = 0;
+        }
+        int start = ((numBlocks - 1) << BLOCK_SHIFT) + upto;
+        upto += size;
+        return start;
     }
 }
@@ -0,0 +1,149 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Enumeration;
+
+import com.lucene.analysis.Analyzer;
+import com.lucene.document.Document;
+
+/* Analyzes documents ahead on worker threads for IndexWriter.addDocuments.
+   Workers take documents from the source in turn, analyze them, and leave
+   them in a window indexed by their number in the source; the adding thread
+   takes them from the window in that order.  Workers wait while the window
+   is full, so that analysis cannot run arbitrarily far ahead of indexing. */
+final class DocumentsPipeline {
+    private Enumeration source;
+    private Analyzer analyzer;
+    private int maxFieldLength;
+
+    private AnalyzedDocument[] window;
+    private long numTaken = 0;                  // from the source
+    private long numAdded = 0;                  // by the adding thread
+    private boolean sourceDone = false;
+    private boolean closed = false;
+    private Worker[] workers;
+
+    DocumentsPipeline(Enumeration source, Analyzer analyzer, int maxFieldLength,
+                      int numThreads, int windowSize) {
+        this.source = source;
+        this.analyzer = analyzer;
+        this.maxFieldLength = maxFieldLength;
+        window = new AnalyzedDocument[windowSize];
+        workers = new Worker[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new Worker();
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Returns the next document of the source, once analyzed, or null when
+     * all have been returned.  Rethrows what its analysis threw.
+     */
+    final synchronized AnalyzedDocument next() throws IOException {
+        int slot = (int) (numAdded % window.length);
+        while (window[slot] == null) {
+            if (sourceDone && numAdded == numTaken)
+                return null;
+            waitForWorkers();
+        }
+        AnalyzedDocument analyzed = window[slot];
+        window[slot] = null;
+        numAdded++;
+        notifyAll();                          // window has room
+
+        Throwable e = analyzed.exception;
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        return analyzed;
+    }
+
+    /**
+     * Stops the workers and waits for them to exit.
+     */
+    final void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < workers.length; i++) {
+            while (workers[i].isAlive()) {
+                try {
+                    workers[i].join();
+                } catch (InterruptedException e) {
+                    interrupted = true;          // must wait regardless
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private final void waitForWorkers() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /* Takes the next document from the source, or returns null when there
+       are no more or the pipeline is closed. */
+    private final synchronized AnalyzedDocument take() {
+        while (!closed && !sourceDone && numTaken - numAdded >= window.length) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                closed = true;                  // give up
+            }
+        }
+        if (closed || sourceDone)
+            return null;
+
+        AnalyzedDocument analyzed = new AnalyzedDocument();
+        try {
+            if (!source.hasMoreElements()) {
+                sourceDone = true;
+                notifyAll();
+                return null;
+            }
+            analyzed.doc = (Document) source.nextElement();
+        } catch (RuntimeException e) {          // report in turn
+            analyzed.exception = e;
+            sourceDone = true;
+        }
+        analyzed.number = numTaken++;
+        return analyzed;
+    }
+
+    private final synchronized void put(AnalyzedDocument analyzed) {
+        window[(int) (analyzed.number % window.length)] = analyzed;
+        notifyAll();
+    }
+
+    private final class Worker extends Thread {
+        Worker() {
+            setDaemon(true);
+        }
+
+        public void run() {
+            AnalyzedDocument analyzed;
+            while ((analyzed = take()) != null) {
+                if (analyzed.exception == null) {
+                    try {
+                        analyzed.analyze(analyzer, maxFieldLength);
+                    } catch (Throwable e) {
+                        analyzed.exception = e;
+                    }
+                }
+                put(analyzed);
+            }
+        }
+    }
+}
@@ -5,6 +5,10 @@ final class FieldInfo {
     boolean isIndexed;
     int number;
 
+    boolean omitNorms;                      // no .fN file
+    boolean omitPositions;                  // nothing in .prx
+    boolean omitFreqs;                      // docs only in .frq
+
     FieldInfo(String na, boolean tk, int nu) {
         name = na;
         isIndexed = tk;
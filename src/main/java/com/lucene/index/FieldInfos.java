@@ -13,11 +13,17 @@ import com.lucene.store.OutputStream;
 import com.lucene.store.InputStream;
 
 final class FieldInfos {
+    // bits of the flags byte of each field in .fnm
+    static final byte IS_INDEXED = 0x1;
+    static final byte OMIT_NORMS = 0x2;
+    static final byte OMIT_POSITIONS = 0x4;
+    static final byte OMIT_FREQS = 0x8;
+
     private Vector byNumber = new Vector();
     private Hashtable byName = new Hashtable();
 
     FieldInfos() {
-        add("", false);
+        add("", false, false, false, false);
     }
 
     FieldInfos(Directory d, String name) throws IOException {
@@ -36,7 +42,8 @@ final class FieldInfos {
         Enumeration fields = doc.fields();
         while (fields.hasMoreElements()) {
             Field field = (Field) fields.nextElement();
-            add(field.name(), field.isIndexed());
+            add(field.name(), field.isIndexed(), field.omitNorms(),
+                    field.omitPositions(), field.omitFreqs());
         }
     }
 
@@ -46,24 +53,37 @@ final class FieldInfos {
     final void add(FieldInfos other) {
         for (int i = 0; i < other.size(); i++) {
             FieldInfo fi = other.fieldInfo(i);
-            add(fi.name, fi.isIndexed);
+            add(fi.name, fi.isIndexed, fi.omitNorms, fi.omitPositions, fi.omitFreqs);
         }
     }
 
-    private final void add(String name, boolean isIndexed) {
+    /* Norms are kept if any addition has them, since documents without them
+       can be given a neutral norm; positions and frequencies are dropped if
+       any addition lacks them, since they cannot be made up. */
+    private final void add(String name, boolean isIndexed, boolean omitNorms,
+                           boolean omitPositions, boolean omitFreqs) {
         FieldInfo fi = fieldInfo(name);
-        if (fi == null)
-            addInternal(name, isIndexed);
-        else if (fi.isIndexed != isIndexed)
+        if (fi == null) {
+            fi = addInternal(name, isIndexed);
+            fi.omitNorms = omitNorms;
+        } else if (fi.isIndexed != isIndexed) {
             throw new IllegalStateException("field " + name +
                     (fi.isIndexed ? " must" : " cannot") +
                     " be an indexed field.");
+        } else if (!omitNorms) {
+            fi.omitNorms = false;
+        }
+        if (omitFreqs)
+            fi.omitFreqs = true;
+        if (omitPositions || omitFreqs)          // positions need freqs
+            fi.omitPositions = true;
     }
 
-    private final void addInternal(String name, boolean isIndexed) {
+    private final FieldInfo addInternal(String name, boolean isIndexed) {
         FieldInfo fi = new FieldInfo(name, isIndexed, byNumber.size());
         byNumber.addElement(fi);
         byName.put(name, fi);
+        return fi;
     }
 
     final int fieldNumber(String fieldName) {
@@ -104,14 +124,24 @@ final class FieldInfos {
         for (int i = 0; i < size(); i++) {
             FieldInfo fi = fieldInfo(i);
             output.writeString(fi.name);
-            output.writeByte((byte) (fi.isIndexed ? 1 : 0));
+            byte bits = 0;
+            if (fi.isIndexed) bits |= IS_INDEXED;
+            if (fi.omitNorms) bits |= OMIT_NORMS;
+            if (fi.omitPositions) bits |= OMIT_POSITIONS;
+            if (fi.omitFreqs) bits |= OMIT_FREQS;
+            output.writeByte(bits);
         }
     }
 
     private final void read(InputStream input) throws IOException {
         int size = input.readVInt();
-        for (int i = 0; i < size; i++)
-            addInternal(input.readString().intern(),
-                    input.readByte() != 0);
+        for (int i = 0; i < size; i++) {
+            String name = input.readString().intern();
+            byte bits = input.readByte();
+            FieldInfo fi = addInternal(name, (bits & IS_INDEXED) != 0);
+            fi.omitNorms = (bits & OMIT_NORMS) != 0;
+            fi.omitPositions = (bits & OMIT_POSITIONS) != 0;
+            fi.omitFreqs = (bits & OMIT_FREQS) != 0;
+        }
     }
 }
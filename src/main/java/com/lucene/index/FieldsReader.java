@@ -54,4 +54,28 @@ final class FieldsReader {
 
         return doc;
     }
+
+    /**
+     * Positions the fields stream at the start of document
+     * <code>startDoc</code> and returns it, after storing the lengths in bytes
+     * of <code>numDocs</code> documents from there in <code>lengths</code>.
+     * The encoded documents may then be copied without decoding them.
+     */
+    final InputStream rawDocs(int[] lengths, int startDoc, int numDocs)
+            throws IOException {
+        indexStream.seek(startDoc * 8L);
+        long startPosition = indexStream.readLong();
+        long lastPosition = startPosition;
+        for (int i = 0; i < numDocs; i++) {
+            long position;
+            if (startDoc + i + 1 < size)
+                position = indexStream.readLong();
+            else
+                position = fieldsStream.length();      // last document
+            lengths[i] = (int) (position - lastPosition);
+            lastPosition = position;
+        }
+        fieldsStream.seek(startPosition);
+        return fieldsStream;
+    }
 }
@@ -3,6 +3,7 @@ package com.lucene.index;
 import com.lucene.document.Document;
 import com.lucene.document.Field;
 import com.lucene.store.Directory;
+import com.lucene.store.InputStream;
 import com.lucene.store.OutputStream;
 
 import java.io.IOException;
@@ -25,6 +26,27 @@ final class FieldsWriter {
         indexStream.close();
     }
 
+    /**
+     * Copies <code>numDocs</code> encoded documents, whose lengths are in
+     * <code>lengths</code>, as returned by {@link FieldsReader#rawDocs}.  The
+     * documents must number their fields as this writer's FieldInfos do.
+     */
+    final void addRawDocuments(InputStream stream, int[] lengths, int numDocs,
+                               byte[] buffer) throws IOException {
+        long position = fieldsStream.getFilePointer();
+        long start = position;
+        for (int i = 0; i < numDocs; i++) {
+            indexStream.writeLong(position);
+            position += lengths[i];
+        }
+        for (long left = position - start; left > 0; ) {
+            int chunk = (int) Math.min(left, buffer.length);
+            stream.readBytes(buffer, 0, chunk);
+            fieldsStream.writeBytes(buffer, chunk);
+            left -= chunk;
+        }
+    }
+
     final void addDocument(Document doc) throws IOException {
         indexStream.writeLong(fieldsStream.getFilePointer());
 
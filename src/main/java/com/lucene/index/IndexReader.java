@@ -2,6 +2,7 @@ package com.lucene.index;
 
 import java.io.IOException;
 import java.io.File;
+import java.util.Hashtable;
 
 import com.lucene.store.Directory;
 import com.lucene.store.FSDirectory;
@@ -27,19 +28,19 @@ abstract public class IndexReader {
     }
 
     /**
-     * Returns an IndexReader reading the index in an FSDirectory in the named
-     * path.
+     * Returns an IndexReader reading the index in the named path, through the
+     * directory returned by {@link FSDirectory#getDirectory(File, boolean)}.
      */
     public static IndexReader open(String path) throws IOException {
-        return open(new FSDirectory(path, false));
+        return open(FSDirectory.getDirectory(path, false));
     }
 
     /**
-     * Returns an IndexReader reading the index in an FSDirectory in the named
-     * path.
+     * Returns an IndexReader reading the index in the named path, through the
+     * directory returned by {@link FSDirectory#getDirectory(File, boolean)}.
      */
     public static IndexReader open(File path) throws IOException {
-        return open(new FSDirectory(path, false));
+        return open(FSDirectory.getDirectory(path, false));
     }
 
     /**
@@ -54,7 +55,66 @@ abstract public class IndexReader {
         SegmentReader[] readers = new SegmentReader[infos.size()];
         for (int i = 0; i < infos.size(); i++)
             readers[i] = new SegmentReader(infos.info(i), i == infos.size() - 1);
-        return new SegmentsReader(readers);
+        return new SegmentsReader(directory, readers);
+    }
+
+    /**
+     * Returns a reader of the index as last committed to this reader's
+     * directory, or this reader if nothing has been committed since it was
+     * opened.  Segments that are unchanged, or whose only change is new
+     * deletions, are not read again: their files and caches are shared with
+     * this reader, which remains usable until it is closed.  When a new
+     * reader is returned, both it and this must be closed.
+     *
+     * <p>Deletions pending in this reader are committed first.
+     */
+    abstract public IndexReader reopen() throws IOException;
+
+    /* Opens the index last committed to a directory, sharing the readers of
+       segments it still holds with <code>old</code>.  Returns null if the
+       index is unchanged. */
+    static final IndexReader reopen(Directory directory, SegmentReader[] old)
+            throws IOException {
+        SegmentInfos.commitDeletions(old);
+        SegmentInfos infos = new SegmentInfos();
+        infos.read(directory);
+
+        Hashtable byName = new Hashtable();
+        int[] directoryRefs = null;
+        for (int i = 0; i < old.length; i++) {
+            byName.put(old[i].segmentInfo.name, old[i]);
+            if (old[i].directoryRefs() != null)
+                directoryRefs = old[i].directoryRefs();
+        }
+        boolean changed = infos.size() != old.length;
+        for (int i = 0; !changed && i < old.length; i++) {
+            SegmentInfo si = infos.info(i);
+            changed = !si.name.equals(old[i].segmentInfo.name)
+                    || si.delGen != old[i].segmentInfo.delGen;
+        }
+        if (!changed)
+            return null;
+
+        SegmentReader[] readers = new SegmentReader[infos.size()];
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                SegmentInfo si = infos.info(i);
+                SegmentReader reader = (SegmentReader) byName.get(si.name);
+                if (reader != null) {
+                    readers[i] = reader.reopen(si);
+                } else {
+                    readers[i] = new SegmentReader(si);
+                    readers[i].shareDirectory(directoryRefs);
+                }
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < readers.length && readers[i] != null; i++)
+                readers[i].close();
+            throw e;
+        }
+        if (readers.length == 1)
+            return readers[0];
+        return new SegmentsReader(directory, readers);
     }
 
     /**
@@ -104,6 +164,7 @@ abstract public class IndexReader {
     /**
      * Returns the byte-encoded normalization factor for the named field of
      * every document.  This is used by the search code to score documents.
+     * Returns null if the field is indexed without norms.
      *
      * @see com.lucene.search.Similarity#norm
      */
@@ -123,6 +184,16 @@ abstract public class IndexReader {
      */
     abstract public TermEnum terms(Term t) throws IOException;
 
+    /**
+     * Sets how many entries of each segment's terms index are passed over
+     * for each held in memory.  The default, one, holds every 128th term;
+     * larger values save memory at the cost of slower term lookups.  Must be
+     * called before terms are first looked up, else an
+     * IllegalStateException is thrown.  Readers which share segments, as
+     * after {@link #reopen()}, share their divisors.
+     */
+    abstract public void setTermIndexDivisor(int divisor);
+
     /**
      * Returns the number of documents containing the term <code>t</code>.
      */
@@ -2,13 +2,20 @@ package com.lucene.index;
 
 import com.lucene.analysis.Analyzer;
 import com.lucene.document.Document;
+import com.lucene.search.Query;
 import com.lucene.store.Directory;
 import com.lucene.store.InputStream;
 import com.lucene.store.OutputStream;
-import com.lucene.store.RAMDirectory;
+import com.lucene.store.RateLimitedDirectory;
+import com.lucene.store.RateLimiter;
+import com.lucene.util.BitVector;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 /**
@@ -22,8 +29,28 @@ public final class IndexWriter {
     //segments缓冲区
     private SegmentInfos segmentInfos = new SegmentInfos();
 
-    //临时的segment缓冲区: Hashtable
-    private final Directory ramDirectory = new RAMDirectory();
+    //文档缓冲区, one per indexing thread, each flushed as its own segment
+    private final Vector docWriters = new Vector();
+    private final ThreadLocal threadDocWriter = new ThreadLocal();
+    private int nextDocWriter = 0;              // round-robin once at limit
+
+    //docCount of the last flushed segment, the smallest merged by maybeMergeSegments
+    private int flushedDocs = 1;
+
+    //merges selected but not yet started, and those running
+    private final Vector pendingMerges = new Vector();
+    private final Vector runningMerges = new Vector();
+    private final Hashtable mergingSegments = new Hashtable();      // -> merge
+    private boolean optimizing = false;          // select no merges meanwhile
+
+    //deletions of documents in committed segments, not yet applied
+    private final BufferedDeletes deletes = new BufferedDeletes();
+
+    //segment readers shared by the readers returned by getReader
+    private Hashtable readerPool = new Hashtable();      // name -> reader
+
+    //files of merged segments still read by readers returned by getReader
+    private final Hashtable heldFiles = new Hashtable();      // core refs -> files
 
     /**
      * @param d
@@ -46,10 +73,98 @@ public final class IndexWriter {
      * Flushes all changes to an index, closes all associated files, and closes
      * the directory that the index is stored in.
      */
-    public final synchronized void close() throws IOException {
+    public final void close() throws IOException {
+        boolean flushed = flushRamSegments();
+        synchronized (this) {
+            applyDeletes();
+            if (flushed)
+                maybeMergeSegments();
+        }
+        mergeScheduler.merge(this);
+        mergeScheduler.close();          // wait for merges
+        synchronized (this) {
+            closeReaderPool(readerPool);
+            if (heldFiles.size() > 0) {          // left for a later writer
+                Vector deletable = readDeleteableFiles();
+                releaseHeldFiles(deletable, true);
+                writeDeleteableFiles(deletable);
+            }
+            directory.close();
+        }
+    }
+
+    /**
+     * Returns a reader of the documents added so far, including those not
+     * yet flushed, and of the deletions made so far.  Buffered documents
+     * are flushed, but the segments already in the index are not re-opened:
+     * their readers are shared with the readers previously returned, and
+     * only a segment's deletions are read again when they have changed,
+     * as by {@link IndexReader#reopen}.  This makes new
+     * documents searchable much sooner than closing the writer and opening
+     * the index again would.
+     *
+     * <p>The reader must be closed, but it does not close the directory.
+     * Deletions made with it are committed when it is closed, as with any
+     * reader, and are not seen by the other readers returned.
+     */
+    public final IndexReader getReader() throws IOException {
         flushRamSegments();
-        ramDirectory.close();
-        directory.close();
+        synchronized (this) {
+            applyDeletes();
+            segmentInfos.readDeletions(directory);      // see readers' deletions
+            Hashtable oldPool = readerPool;
+            readerPool = new Hashtable();
+            SegmentReader[] readers = new SegmentReader[segmentInfos.size()];
+            boolean success = false;
+            try {
+                for (int i = 0; i < readers.length; i++) {
+                    SegmentInfo si = segmentInfos.info(i);
+                    SegmentReader reader = (SegmentReader) oldPool.remove(si.name);
+                    if (reader == null) {
+                        reader = new SegmentReader((SegmentInfo) si.clone());
+                    } else if (reader.segmentInfo.delGen != si.delGen) {
+                        SegmentReader stale = reader;      // share its files
+                        reader = stale.reopen((SegmentInfo) si.clone());
+                        stale.close();
+                    }
+                    readerPool.put(si.name, reader);
+                    readers[i] = reader.share();      // its deletions its own
+                    OneMerge merge = (OneMerge) mergingSegments.get(si);
+                    if (merge != null && merge.deletes.size() > 0) {
+                        merge.deletes.applyTo(readers[i]);      // deferred by
+                        readers[i].clearPendingDeletions();     // applyDeletes
+                    }
+                }
+                success = true;
+            } finally {
+                if (!success)
+                    for (int i = 0; i < readers.length; i++)
+                        if (readers[i] != null)
+                            readers[i].close();
+                closeReaderPool(oldPool);      // of merged segments
+            }
+            if (readers.length == 1)
+                return readers[0];
+            return new SegmentsReader(directory, readers);
+        }
+    }
+
+    /* Closes the pooled readers.  They never have deletions to commit, but
+       every one is closed even if closing another fails. */
+    private final void closeReaderPool(Hashtable pool) throws IOException {
+        IOException exception = null;
+        Enumeration e = pool.elements();
+        while (e.hasMoreElements()) {
+            try {
+                ((SegmentReader) e.nextElement()).close();
+            } catch (IOException x) {
+                if (exception == null)
+                    exception = x;
+            }
+        }
+        pool.clear();
+        if (exception != null)
+            throw exception;
     }
 
     /**
@@ -61,6 +176,10 @@ public final class IndexWriter {
             SegmentInfo si = segmentInfos.info(i);
             count += si.docCount;
         }
+        synchronized (docWriters) {
+            for (int i = 0; i < docWriters.size(); i++)
+                count += ((DocumentWriter) docWriters.elementAt(i)).numDocs();
+        }
         return count;
     }
 
@@ -74,26 +193,315 @@ public final class IndexWriter {
      */
     public int maxFieldLength = 10000;
 
+    /**
+     * Determines the amount of RAM that may be used for buffering added
+     * documents before they are flushed as a new segment.  Larger values
+     * give larger flushed segments, and so fewer merges, and faster indexing.
+     * Buffered documents are not visible to readers until flushed.  The
+     * amount is shared equally by the buffers of the indexing threads.
+     *
+     * <p>The default value is 16 MB.
+     */
+    public double ramBufferSizeMB = 16.0;
+
+    /**
+     * Determines the largest number of documents buffered before they are
+     * flushed as a new segment.  A flush happens when either this or
+     * {@link #ramBufferSizeMB} is reached.
+     *
+     * <p>The default value is {@link Integer#MAX_VALUE}, i.e. documents are
+     * flushed by RAM usage only.
+     */
+    public int maxBufferedDocs = Integer.MAX_VALUE;
+
+    /**
+     * Determines the largest number of document buffers.  Each thread adding
+     * documents uses a buffer of its own, so that up to this many threads
+     * analyze and invert documents, and flush segments, concurrently.
+     * Further threads share buffers.
+     *
+     * <p>The default value is 8.
+     */
+    public int maxThreadStates = 8;
+
     /**
      * 使用入口
+     *
+     * <p>May be called by several threads at once.
      */
     public final void addDocument(Document doc) throws IOException
     {
-        String segmentName = newSegmentName();
+        addDocument(doc, null);
+    }
 
-        DocumentWriter dw = new DocumentWriter(ramDirectory, analyzer, maxFieldLength);
+    /**
+     * Determines the number of threads that analyze documents for {@link
+     * #addDocuments}.
+     *
+     * <p>The default value is the number of processors.
+     */
+    public int analysisThreads = Runtime.getRuntime().availableProcessors();
 
-        dw.addDocument(segmentName, doc);
+    /**
+     * Determines how many documents {@link #addDocuments} may analyze ahead
+     * of those it has added, which bounds the memory held by analyzed
+     * documents waiting to be added.
+     *
+     * <p>The default value is 64.
+     */
+    public int analysisQueueSize = 64;
 
-        synchronized (this)
-        {
-            segmentInfos.addElement(new SegmentInfo(segmentName, 1, ramDirectory));
-            maybeMergeSegments();
+    /**
+     * Adds each document of an enumeration, in order, as {@link
+     * #addDocument} would.  The documents are analyzed by up to {@link
+     * #analysisThreads} threads, ahead of the calling thread, which inverts
+     * and buffers them; this keeps several processors busy when loading
+     * many documents from a single source.  The enumeration is only called
+     * by one thread at a time.
+     *
+     * <p>An exception thrown by the enumeration or while analyzing a
+     * document is rethrown once the preceding documents have been added.
+     */
+    public final void addDocuments(Enumeration docs) throws IOException {
+        if (analysisThreads <= 1) {
+            while (docs.hasMoreElements())
+                addDocument((Document) docs.nextElement());
+            return;
         }
+        DocumentsPipeline pipeline =
+                new DocumentsPipeline(docs, analyzer, maxFieldLength,
+                        analysisThreads, Math.max(1, analysisQueueSize));
+        try {
+            for (AnalyzedDocument analyzed = pipeline.next(); analyzed != null;
+                 analyzed = pipeline.next())
+                addDocument(analyzed.doc, analyzed);
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private final void addDocument(Document doc, AnalyzedDocument analyzed)
+            throws IOException
+    {
+        DocumentWriter dw = acquireDocWriter();
+        boolean flushed;
+        try {
+            flushed = addDocument(dw, doc, analyzed);
+        } finally {
+            releaseDocWriter(dw);
+        }
+        if (flushed)
+            mergeScheduler.merge(this);          // not holding the buffer
     }
 
-    private final synchronized String newSegmentName() {
-        return "_" + Integer.toString(segmentInfos.counter++, Character.MAX_RADIX);
+    /* Adds a document to a buffer held by the caller, flushing the buffer
+       when full.  Returns true if it was flushed. */
+    private final boolean addDocument(DocumentWriter dw, Document doc,
+                                      AnalyzedDocument analyzed)
+            throws IOException {
+        dw.maxFieldLength = maxFieldLength;
+        dw.addDocument(dw.segment() == null ? newSegmentName() : null, doc,
+                analyzed);
+
+        long ramPerWriter =
+                (long) (ramBufferSizeMB * 1024 * 1024) / docWriters.size();
+        if (dw.numDocs() >= maxBufferedDocs || dw.ramUsed() >= ramPerWriter) {
+            SegmentInfo info = dw.flush(useCompoundFile);
+            synchronized (this) {
+                addFlushedSegment(info);
+                maybeMergeSegments();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines how many deletions by term or query are buffered before
+     * they are applied to the segments of the index.  Deletions are also
+     * applied when documents are flushed, and on {@link #optimize} and
+     * {@link #close}.  Deletions of buffered documents are held by the
+     * buffers and count towards {@link #ramBufferSizeMB}.
+     *
+     * <p>The default value is 1000.
+     */
+    public int maxBufferedDeleteTerms = 1000;
+
+    /**
+     * Deletes the documents containing a term, both those in the index and
+     * those added before and not yet flushed.  Documents added after are not
+     * deleted.  The deletions are buffered, so that many may be applied to
+     * each segment together; like added documents, they are not visible to
+     * readers until applied.
+     */
+    public final void deleteDocuments(Term term) throws IOException {
+        DocumentWriter[] writers = takeDocWriters();
+        try {
+            bufferDelete(writers, term, null);
+        } finally {
+            releaseDocWriters(writers);
+        }
+    }
+
+    /**
+     * Deletes the documents matching a query, as {@link
+     * #deleteDocuments(Term)} does.
+     */
+    public final void deleteDocuments(Query query) throws IOException {
+        DocumentWriter[] writers = takeDocWriters();
+        try {
+            bufferDelete(writers, null, query);
+        } finally {
+            releaseDocWriters(writers);
+        }
+    }
+
+    /**
+     * Deletes the documents containing a term and then adds a document,
+     * e.g. a new version of the deleted one identified by the term.  No
+     * thread adding documents to this writer, and no flush or merge, sees
+     * the deletion without the added document.
+     */
+    public final void updateDocument(Term term, Document doc)
+            throws IOException {
+        DocumentWriter dw = acquireDocWriter();      // make the thread's buffer
+        releaseDocWriter(dw);
+        DocumentWriter[] writers = takeDocWriters();
+        boolean flushed;
+        try {
+            bufferDelete(writers, term, null);
+            flushed = addDocument(dw, doc, null);
+        } finally {
+            releaseDocWriters(writers);
+        }
+        if (flushed)
+            mergeScheduler.merge(this);
+    }
+
+    /* Records a deletion in every buffer holding documents, and for the
+       segments of the index.  Must be called holding every buffer, so that
+       no segment is flushed in between. */
+    private final void bufferDelete(DocumentWriter[] writers, Term term,
+                                    Query query) throws IOException {
+        for (int i = 0; i < writers.length; i++) {
+            if (writers[i].numDocs() == 0)
+                continue;
+            if (term != null)
+                writers[i].deleteDocuments(term);
+            else
+                writers[i].deleteDocuments(query);
+        }
+        synchronized (this) {
+            if (term != null)
+                deletes.addTerm(term, Integer.MAX_VALUE);
+            else
+                deletes.addQuery(query, Integer.MAX_VALUE);
+            if (deletes.size() >= maxBufferedDeleteTerms)
+                applyDeletes();
+        }
+    }
+
+    /**
+     * Applies the buffered deletions to the segments of the index and
+     * commits them.  Those of segments being merged are applied to the
+     * merged segment instead, as the merge would drop them; until then,
+     * getReader applies them to the readers it returns.
+     */
+    private final void applyDeletes() throws IOException {
+        if (deletes.size() == 0)
+            return;
+        Vector obsolete = new Vector();
+        synchronized (SegmentInfos.COMMIT_LOCK) {
+            segmentInfos.readDeletions(directory);      // see readers' deletions
+            Vector deferred = new Vector();
+            for (int i = 0; i < segmentInfos.size(); i++) {
+                SegmentInfo si = segmentInfos.info(i);
+                OneMerge merge = (OneMerge) mergingSegments.get(si);
+                if (merge != null && runningMerges.contains(merge)) {
+                    if (!deferred.contains(merge)) {
+                        merge.deletes.addAll(deletes);
+                        deferred.addElement(merge);
+                    }
+                    continue;
+                }
+                if (si.dir != directory)
+                    continue;
+                String old = deletes.apply(si);
+                if (old != null)
+                    obsolete.addElement(old);
+            }
+            deletes.clear();
+            segmentInfos.write(directory);
+        }
+
+        for (int i = 0; i < obsolete.size(); i++) {
+            try {
+                directory.deleteFile((String) obsolete.elementAt(i));
+            } catch (IOException e) {              // e.g., still open
+            }
+        }
+    }
+
+    /* Returns the calling thread's document buffer, waiting while it is used
+       by another thread. */
+    private final DocumentWriter acquireDocWriter() throws IOException {
+        synchronized (docWriters) {
+            DocumentWriter dw = (DocumentWriter) threadDocWriter.get();
+            if (dw == null) {
+                if (docWriters.size() < maxThreadStates) {
+                    dw = new DocumentWriter(directory, analyzer, maxFieldLength);
+                    docWriters.addElement(dw);
+                } else {
+                    dw = (DocumentWriter)
+                            docWriters.elementAt(nextDocWriter++ % docWriters.size());
+                }
+                threadDocWriter.set(dw);
+            }
+            while (dw.busy)
+                waitForDocWriters();
+            dw.busy = true;
+            return dw;
+        }
+    }
+
+    private final void releaseDocWriter(DocumentWriter dw) {
+        synchronized (docWriters) {
+            dw.busy = false;
+            docWriters.notifyAll();
+        }
+    }
+
+    /* Takes every buffer, waiting for those in use. */
+    private final DocumentWriter[] takeDocWriters() throws IOException {
+        synchronized (docWriters) {
+            DocumentWriter[] writers = new DocumentWriter[docWriters.size()];
+            docWriters.copyInto(writers);
+            for (int i = 0; i < writers.length; i++) {
+                while (writers[i].busy)
+                    waitForDocWriters();
+                writers[i].busy = true;
+            }
+            return writers;
+        }
+    }
+
+    private final void releaseDocWriters(DocumentWriter[] writers) {
+        for (int i = 0; i < writers.length; i++)
+            releaseDocWriter(writers[i]);
+    }
+
+    private final void waitForDocWriters() throws IOException {
+        try {
+            docWriters.wait();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private final String newSegmentName() {
+        synchronized (segmentInfos) {          // not this: merges hold it
+            return "_" + Integer.toString(segmentInfos.counter++, Character.MAX_RADIX);
+        }
     }
 
     /**
@@ -105,6 +513,9 @@ public final class IndexWriter {
      * for batched index creation, and smaller values (< 10) for indexes that are
      * interactively maintained.
      *
+     * <p>This is used by {@link LogDocMergePolicy}, {@link LogByteSizeMergePolicy}
+     * and {@link #optimize}.
+     *
      * <p>This must never be less than 2.  The default value is 10.
      */
     public int mergeFactor = 10;
@@ -115,10 +526,55 @@ public final class IndexWriter {
      * as this limits the length of pauses while indexing to a few seconds.
      * Larger values are best for batched indexing and speedier searches.
      *
-     * <p>The default value is {@link Integer#MAX_VALUE}.
+     * <p>This is used by {@link LogDocMergePolicy}.  The default value is
+     * {@link Integer#MAX_VALUE}.
      */
     public int maxMergeDocs = Integer.MAX_VALUE;
 
+    /**
+     * If true, each segment written by a merge is packed into a single
+     * compound file, rather than one file per segment part and per indexed
+     * field.  This greatly reduces the number of files opened by a reader,
+     * at the cost of copying the segment once more when it is written.
+     *
+     * <p>The default value is false.
+     */
+    public boolean useCompoundFile = false;
+
+    /**
+     * Selects the merges done as segments are added.  The default merges
+     * by document count, as described for {@link #mergeFactor}.
+     */
+    public MergePolicy mergePolicy = new LogDocMergePolicy();
+
+    /**
+     * Runs the merges selected as segments are added.  The default runs
+     * them in background threads, so that addDocument() does not wait for
+     * them; set a {@link SerialMergeScheduler} to run them in the adding
+     * thread instead.
+     */
+    public MergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+
+    /**
+     * If true, each merge copies stored fields and norms in threads of their
+     * own while the calling thread merges terms, which shortens large merges
+     * and {@link #optimize} on machines with several processors.
+     *
+     * <p>The default value is true when there is more than one processor.
+     */
+    public boolean parallelMerge = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * Limits the rate at which merges, including those of {@link #optimize},
+     * write the index, so that merging does not starve searches of disk
+     * bandwidth.  Flushing added documents is not limited.  The rate may be
+     * changed while merges run, and the time merges have been paused is
+     * reported by the limiter and printed to the {@link #infoStream}.
+     *
+     * <p>The default limiter has no limit.
+     */
+    public RateLimiter mergeRateLimiter = new RateLimiter(0.0);
+
     /**
      * If non-null, information about merges will be printed to this.
      */
@@ -128,13 +584,28 @@ public final class IndexWriter {
      * Merges all segments together into a single segment, optimizing an index
      * for search.
      */
-    public final synchronized void optimize() throws IOException {
+    public final void optimize() throws IOException {
         flushRamSegments();
-        while (segmentInfos.size() > 1 ||
-                (segmentInfos.size() == 1 &&
-                        SegmentReader.hasDeletions(segmentInfos.info(0)))) {
-            int minSegment = segmentInfos.size() - mergeFactor;
-            mergeSegments(minSegment < 0 ? 0 : minSegment);
+        synchronized (this) {
+            mergeAll();
+        }
+    }
+
+    private final void mergeAll() throws IOException {
+        boolean wasOptimizing = optimizing;      // e.g. within addIndexes
+        optimizing = true;
+        try {
+            waitForMerges();
+            applyDeletes();
+            segmentInfos.readDeletions(directory);
+            while (segmentInfos.size() > 1 ||
+                    (segmentInfos.size() == 1 &&
+                            segmentInfos.info(0).hasDeletions())) {
+                int minSegment = segmentInfos.size() - mergeFactor;
+                mergeSegments(minSegment < 0 ? 0 : minSegment);
+            }
+        } finally {
+            optimizing = wasOptimizing;
         }
     }
 
@@ -149,9 +620,17 @@ public final class IndexWriter {
      *
      * <p>After this completes, the index is optimized.
      */
-    public final synchronized void addIndexes(Directory[] dirs)
+    public final void addIndexes(Directory[] dirs)
+            throws IOException {
+        flushRamSegments();
+        synchronized (this) {
+            addIndexesInternal(dirs);
+        }
+    }
+
+    private final void addIndexesInternal(Directory[] dirs)
             throws IOException {
-        optimize();                      // start with zero or 1 seg
+        mergeAll();                      // start with zero or 1 seg
         int minSegment = segmentInfos.size();
         int segmentsAddedSinceMerge = 0;
         for (int i = 0; i < dirs.length; i++) {
@@ -167,53 +646,84 @@ public final class IndexWriter {
                 }
             }
         }
-        optimize();                      // final cleanup
+        mergeAll();                      // final cleanup
     }
 
     /**
-     * Merges all RAM-resident segments.
+     * Writes the buffered documents of every thread as new segments and
+     * commits them.  Returns true if any documents were buffered.  Must not
+     * be called while synchronized on this, as adding threads may hold their
+     * buffers while waiting for it.
      */
-    private final void flushRamSegments() throws IOException {
-        int minSegment = segmentInfos.size() - 1;
-        int docCount = 0;
-        while (minSegment >= 0 &&
-                (segmentInfos.info(minSegment)).dir == ramDirectory) {
-            docCount += segmentInfos.info(minSegment).docCount;
-            minSegment--;
+    private final boolean flushRamSegments() throws IOException {
+        DocumentWriter[] writers = takeDocWriters();
+        boolean flushed = false;
+        try {
+            for (int i = 0; i < writers.length; i++) {
+                SegmentInfo info = writers[i].flush(useCompoundFile);
+                if (info != null) {
+                    synchronized (this) {
+                        addFlushedSegment(info);
+                    }
+                    flushed = true;
+                }
+            }
+        } finally {
+            releaseDocWriters(writers);
+        }
+        return flushed;
+    }
+
+    /**
+     * Adds a flushed segment to the index and commits it.
+     */
+    private final void addFlushedSegment(SegmentInfo info) throws IOException {
+        if (infoStream != null)
+            infoStream.println("flushed " + info.name + " (" + info.docCount + " docs)");
+        applyDeletes();                      // before the segment: not to it
+        synchronized (SegmentInfos.COMMIT_LOCK) {
+            segmentInfos.readDeletions(directory);      // see readers' deletions
+            segmentInfos.addElement(info);
+            segmentInfos.write(directory);
         }
-        if (minSegment < 0 ||              // add one FS segment?
-                (docCount + segmentInfos.info(minSegment).docCount) > mergeFactor ||
-                !(segmentInfos.info(segmentInfos.size() - 1).dir == ramDirectory))
-            minSegment++;
-        if (minSegment >= segmentInfos.size())
-            return;                      // none to merge
-        mergeSegments(minSegment);
+        flushedDocs = info.docCount;
     }
 
     /**
-     * Incremental segment merger.
+     * Incremental segment merger.  Merges are selected by the
+     * {@link #mergePolicy} and left to the {@link #mergeScheduler}.  None
+     * are selected while all segments are being merged, as they would be
+     * merged away.
      */
     private final void maybeMergeSegments() throws IOException {
-        long targetMergeDocs = mergeFactor;
-        while (targetMergeDocs <= maxMergeDocs) {
-            // find segments smaller than current target size
-            int minSegment = segmentInfos.size();
-            int mergeDocs = 0;
-            while (--minSegment >= 0)
-            {
-                SegmentInfo si = segmentInfos.info(minSegment);
-                if (si.docCount >= targetMergeDocs)
-                    break;
-                mergeDocs += si.docCount;
-            }
+        if (optimizing)
+            return;
+        segmentInfos.readDeletions(directory);      // see readers' deletions
+        Vector merges = mergePolicy.findMerges(segmentInfos, this);
+        for (int i = 0; i < merges.size(); i++) {
+            OneMerge merge = (OneMerge) merges.elementAt(i);
+            for (int j = 0; j < merge.segments.length; j++)
+                if (isMerging(merge.segments[j]))
+                    throw new IllegalStateException("segment " +
+                            merge.segments[j].name + " is already being merged");
+            registerMerge(merge);
+            pendingMerges.addElement(merge);
+        }
+    }
 
-            if (mergeDocs >= targetMergeDocs)
-                mergeSegments(minSegment + 1);
-            else
-                break;
+    /**
+     * Returns true iff a segment is being merged, or is selected for a
+     * merge.
+     */
+    public final synchronized boolean isMerging(SegmentInfo si) {
+        return mergingSegments.containsKey(si);
+    }
 
-            targetMergeDocs *= mergeFactor;
-        }
+    /**
+     * Returns the number of documents in the most recently flushed segment.
+     */
+    public final synchronized int flushedDocCount() {
+        return flushedDocs;
     }
 
     /**
@@ -230,34 +740,227 @@ public final class IndexWriter {
      */
     private final void mergeSegments(int minSegment, boolean delete)
             throws IOException {
-        String mergedName = newSegmentName();
-        int mergedDocCount = 0;
-        if (infoStream != null) infoStream.print("merging segments");
-        SegmentMerger merger = new SegmentMerger(directory, mergedName);
-        Vector segmentsToDelete = new Vector();
-        for (int i = minSegment; i < segmentInfos.size(); i++) {
-            SegmentInfo si = segmentInfos.info(i);
-            if (infoStream != null)
-                infoStream.print(" " + si.name + " (" + si.docCount + " docs)");
-            SegmentReader reader = new SegmentReader(si);
-            merger.add(reader);
-            if (delete)
-                segmentsToDelete.addElement(reader);      // queue for deletion
-            mergedDocCount += si.docCount;
+        segmentInfos.readDeletions(directory);      // see readers' deletions
+        OneMerge merge = new OneMerge(segmentInfos, minSegment, segmentInfos.size());
+        merge.delete = delete;
+        registerMerge(merge);
+        runningMerges.addElement(merge);
+        merge(merge);
+    }
+
+    /* Marks the segments of a merge as merging, and names the merged
+       segment. */
+    private final void registerMerge(OneMerge merge) {
+        for (int i = 0; i < merge.segments.length; i++)
+            mergingSegments.put(merge.segments[i], merge);
+        merge.name = newSegmentName();
+    }
+
+    /**
+     * Returns the next merge to be run, or null if there is none.  Once
+     * the selected merges are all taken, merges are selected again, so that
+     * merges cascade to the next level.
+     */
+    public final synchronized OneMerge getNextMerge() throws IOException {
+        if (pendingMerges.size() == 0)
+            maybeMergeSegments();
+        if (pendingMerges.size() == 0)
+            return null;
+        OneMerge merge = (OneMerge) pendingMerges.elementAt(0);
+        pendingMerges.removeElementAt(0);
+        runningMerges.addElement(merge);
+        return merge;
+    }
+
+    /**
+     * Returns the number of merges waiting to be run.
+     */
+    public final synchronized int numPendingMerges() {
+        return pendingMerges.size();
+    }
+
+    /**
+     * Returns the number of merges waiting or running.
+     */
+    public final synchronized int numMerges() {
+        return pendingMerges.size() + runningMerges.size();
+    }
+
+    /* Discards pending merges and waits for running merges to finish.
+       Merges selected before optimizing was set are discarded too. */
+    private final void waitForMerges() throws IOException {
+        discardPendingMerges();
+        while (runningMerges.size() > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            }
         }
-        if (infoStream != null) {
-            infoStream.println();
-            infoStream.println(" into " + mergedName + " (" + mergedDocCount + " docs)");
+        discardPendingMerges();
+    }
+
+    private final void discardPendingMerges() {
+        for (int i = 0; i < pendingMerges.size(); i++)
+            unregisterMerge((OneMerge) pendingMerges.elementAt(i));
+        pendingMerges.removeAllElements();
+    }
+
+    private final void unregisterMerge(OneMerge merge) {
+        for (int i = 0; i < merge.segments.length; i++)
+            mergingSegments.remove(merge.segments[i]);
+    }
+
+    /**
+     * Runs a merge returned by {@link #getNextMerge}.  The segments are merged
+     * without holding the writer's lock, so documents may be added and
+     * flushed meanwhile; the lock is only held to replace the merged
+     * segments with the new one.
+     */
+    public final void merge(OneMerge merge) throws IOException {
+        boolean success = false;
+        try {
+            String mergedName = merge.name;
+            int mergedDocCount = 0;
+            StringBuffer info = infoStream == null ? null : new StringBuffer("merging segments");
+            SegmentMerger merger = new SegmentMerger(
+                    new RateLimitedDirectory(directory, mergeRateLimiter), mergedName);
+            merger.parallel = parallelMerge;
+            Vector segmentsToDelete = new Vector();
+            SegmentReader[] readers = new SegmentReader[merge.segments.length];
+            for (int i = 0; i < merge.segments.length; i++) {
+                SegmentReader reader = openMerging(merge.segments[i]);
+                SegmentInfo si = reader.segmentInfo;
+                if (info != null)
+                    info.append(" " + si.name + " (" + si.docCount + " docs)");
+                readers[i] = reader;
+                merger.add(reader);
+                if (merge.delete)
+                    segmentsToDelete.addElement(reader);      // queue for deletion
+                mergedDocCount += reader.numDocs();      // deleted docs are dropped
+            }
+            if (info != null)
+                infoStream.println(info + "\n into " + mergedName + " (" + mergedDocCount + " docs)");
+            boolean compound = useCompoundFile;
+            merger.merge();
+            if (compound)
+                merger.createCompoundFile();
+            if (infoStream != null && mergeRateLimiter.getMbPerSec() > 0)
+                infoStream.println("merged " + mergedName + "; merges paused "
+                        + mergeRateLimiter.getTotalPausedMillis() + " ms in total");
+
+            SegmentInfo mergedInfo =
+                    new SegmentInfo(mergedName, mergedDocCount, directory);
+            mergedInfo.isCompoundFile = compound;
+
+            synchronized (this) {
+                synchronized (SegmentInfos.COMMIT_LOCK) {
+                    segmentInfos.readDeletions(directory);      // see readers' deletions
+                    deleteMergedDocs(readers, merge.segments, mergedInfo);
+                    for (int i = 0; i < readers.length; i++)      // so its latest
+                        readers[i].segmentInfo = merge.segments[i]; // .del is deleted
+                    if (merge.deletes.size() > 0)      // made while merging
+                        merge.deletes.apply(mergedInfo);
+
+                    int minSegment = segmentInfos.indexOf(merge.segments[0]);
+                    for (int i = 0; i < merge.segments.length; i++)
+                        segmentInfos.removeElement(merge.segments[i]); // remove old infos
+                    segmentInfos.insertElementAt(mergedInfo, minSegment); // & add new
+
+                    segmentInfos.write(directory);          // commit before deleting
+                }
+
+                deleteSegments(segmentsToDelete);          // delete now-unused segments
+                success = true;
+
+                finishMerge(merge);
+            }
+        } finally {
+            if (!success) {
+                synchronized (this) {
+                    deletes.addAll(merge.deletes);      // still to be applied
+                    finishMerge(merge);
+                }
+            }
+        }
+    }
+
+    /* Opens a segment to be merged with its latest deletions.  A reader
+       may commit newer deletions and remove the file named in the segments
+       file before it is opened, so this then reads the deletions again. */
+    private final SegmentReader openMerging(SegmentInfo info)
+            throws IOException {
+        while (true) {
+            SegmentInfo si;
+            synchronized (this) {
+                segmentInfos.readDeletions(directory);      // see readers' deletions
+                si = (SegmentInfo) info.clone();
+            }
+            try {
+                return new SegmentReader(si);
+            } catch (FileNotFoundException e) {
+                synchronized (this) {
+                    segmentInfos.readDeletions(directory);
+                    if (info.delGen == si.delGen)
+                        throw e;              // not superseded
+                }
+            }
         }
-        merger.merge();
+    }
 
-        segmentInfos.setSize(minSegment);          // pop old infos & add new
-        segmentInfos.addElement(new SegmentInfo(mergedName, mergedDocCount,
-                directory));
+    /* Reads the latest deletions of a segment, as openMerging. */
+    private final BitVector readMergedDeletions(SegmentInfo info)
+            throws IOException {
+        while (true) {
+            long delGen = info.delGen;
+            try {
+                return new BitVector(directory, info.delFileName());
+            } catch (FileNotFoundException e) {
+                segmentInfos.readDeletions(directory);
+                if (info.delGen == delGen)
+                    throw e;                  // not superseded
+            }
+        }
+    }
 
-        segmentInfos.write(directory);          // commit before deleting
+    /* Carries over to the merged segment the deletions which readers
+       committed to the merged segments while they were merged. */
+    private final void deleteMergedDocs(SegmentReader[] readers,
+                                        SegmentInfo[] infos, SegmentInfo mergedInfo)
+            throws IOException {
+        SegmentReader merged = null;
+        try {
+            int base = 0;
+            for (int i = 0; i < readers.length; i++) {
+                SegmentReader reader = readers[i];
+                BitVector merging = reader.deletedDocs;      // as merged
+                int maxDoc = reader.maxDoc();
+                if (infos[i].delGen != reader.segmentInfo.delGen) {
+                    BitVector current = readMergedDeletions(infos[i]);
+                    if (merged == null)
+                        merged = new SegmentReader(mergedInfo);
+                    for (int doc = 0, j = base; doc < maxDoc; doc++) {
+                        if (merging != null && merging.get(doc))
+                            continue;              // dropped by the merge
+                        if (current.get(doc))
+                            merged.delete(j);
+                        j++;
+                    }
+                }
+                base += maxDoc - (merging == null ? 0 : merging.count());
+            }
+            if (merged != null && merged.hasPendingDeletions())
+                merged.writeDeletions(mergedInfo);
+        } finally {
+            if (merged != null)
+                merged.close();
+        }
+    }
 
-        deleteSegments(segmentsToDelete);          // delete now-unused segments
+    private final void finishMerge(OneMerge merge) {
+        unregisterMerge(merge);
+        runningMerges.removeElement(merge);
+        notifyAll();
     }
 
   /* Some operating systems (e.g. Windows) don't permit a file to be deleted
@@ -269,18 +972,62 @@ public final class IndexWriter {
         Vector deletable = new Vector();
 
         deleteFiles(readDeleteableFiles(), deletable); // try to delete deleteable
+        releaseHeldFiles(deletable, false);
 
         for (int i = 0; i < segments.size(); i++) {
             SegmentReader reader = (SegmentReader) segments.elementAt(i);
-            if (reader.directory == this.directory)
-                deleteFiles(reader.files(), deletable);      // try to delete our files
-            else
+            if (reader.directory != this.directory)
                 deleteFiles(reader.files(), reader.directory); // delete, eg, RAM files
+            else if (!holdFiles(reader))
+                deleteFiles(reader.files(), deletable);      // try to delete our files
         }
 
         writeDeleteableFiles(deletable);          // note files we can't delete
     }
 
+    /* Drops the pooled reader of a merged segment.  If readers returned by
+       getReader still share its files, which they may yet open, e.g. for
+       norms, holds the files until those readers are closed, and returns
+       true. */
+    private final boolean holdFiles(SegmentReader reader) throws IOException {
+        SegmentReader pooled =
+                (SegmentReader) readerPool.remove(reader.segmentInfo.name);
+        if (pooled == null)
+            return false;
+        int[] refs = pooled.coreRefs();
+        pooled.close();
+        synchronized (refs) {
+            if (refs[0] == 0)
+                return false;
+        }
+        heldFiles.put(refs, reader.files());
+        return true;
+    }
+
+    /* Deletes the held files whose readers are all closed.  If closing, the
+       others are added to deletable too, to be deleted by a later writer. */
+    private final void releaseHeldFiles(Vector deletable, boolean closing)
+            throws IOException {
+        Vector keys = new Vector();
+        Enumeration e = heldFiles.keys();
+        while (e.hasMoreElements())
+            keys.addElement(e.nextElement());
+        for (int i = 0; i < keys.size(); i++) {
+            int[] refs = (int[]) keys.elementAt(i);
+            boolean released;
+            synchronized (refs) {
+                released = refs[0] == 0;
+            }
+            if (released) {
+                deleteFiles((Vector) heldFiles.remove(refs), deletable);
+            } else if (closing) {
+                Vector files = (Vector) heldFiles.remove(refs);
+                for (int j = 0; j < files.size(); j++)
+                    deletable.addElement(files.elementAt(j));
+            }
+        }
+    }
+
     private final void deleteFiles(Vector files, Directory directory)
             throws IOException {
         for (int i = 0; i < files.size(); i++)
@@ -330,3 +1077,4 @@ public final class IndexWriter {
         directory.renameFile("deleteable.new", "deletable");
     }
 }
+
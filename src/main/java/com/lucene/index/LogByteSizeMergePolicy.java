@@ -0,0 +1,79 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Merges segments by size in bytes.  Each segment is assigned a level, the
+ * logarithm of its size to the base {@link IndexWriter#mergeFactor}.  Going
+ * from the oldest segments to the newest, segments whose level is within
+ * three quarters of the highest remaining level are grouped, and each
+ * mergeFactor adjacent segments of a group are merged.  Sizes discount
+ * deleted documents, so segments with many deletions drop to lower levels
+ * and are merged sooner.
+ */
+
+public class LogByteSizeMergePolicy extends MergePolicy {
+    /**
+     * Segments smaller than this are all treated as being of this size, so
+     * that many tiny flushed segments form a single level.  The default is
+     * 1.6 MB.
+     */
+    public double minMergeMB = 1.6;
+
+    /**
+     * Segments larger than this are never merged.  The default is 2048 MB.
+     */
+    public double maxMergeMB = 2048.0;
+
+    private static final double LEVEL_LOG_SPAN = 0.75;
+
+    public Vector findMerges(SegmentInfos infos, IndexWriter writer)
+            throws IOException {
+        int mergeFactor = writer.mergeFactor;
+        double norm = Math.log(mergeFactor);
+        long minMergeBytes = (long) (minMergeMB * 1024 * 1024);
+        long maxMergeBytes = (long) (maxMergeMB * 1024 * 1024);
+        double levelFloor = Math.log(Math.max(minMergeBytes, 1)) / norm;
+
+        int n = infos.size();
+        double[] levels = new double[n];
+        for (int i = 0; i < n; i++)
+            levels[i] = Math.log(Math.max(size(infos.info(i)), Math.max(minMergeBytes, 1))) / norm;
+
+        Vector merges = new Vector();
+        int start = 0;
+        while (start < n) {
+            double maxLevel = levels[start];      // highest remaining level
+            for (int i = start + 1; i < n; i++)
+                if (levels[i] > maxLevel)
+                    maxLevel = levels[i];
+
+            double levelBottom;
+            if (maxLevel <= levelFloor)
+                levelBottom = -1.0;              // all are tiny: one level
+            else
+                levelBottom = Math.max(maxLevel - LEVEL_LOG_SPAN, levelFloor);
+
+            int upto = n - 1;                  // last segment of the group
+            while (upto >= start && levels[upto] < levelBottom)
+                upto--;
+
+            int end = start + mergeFactor;
+            while (end <= upto + 1) {
+                boolean mergeable = true;
+                for (int i = start; i < end; i++) {
+                    SegmentInfo si = infos.info(i);
+                    if (size(si) >= maxMergeBytes || writer.isMerging(si))
+                        mergeable = false;
+                }
+                if (mergeable)
+                    merges.addElement(new OneMerge(infos, start, end));
+                start = end;
+                end = start + mergeFactor;
+            }
+            start = upto + 1;
+        }
+        return merges;
+    }
+}
@@ -0,0 +1,48 @@
+package com.lucene.index;
+
+import java.util.Vector;
+
+/**
+ * Merges segments by document count, controlled by the writer's
+ * {@link IndexWriter#mergeFactor} and {@link IndexWriter#maxMergeDocs}.  The
+ * most recently flushed segment defines the lowest level; whenever the
+ * segments at the top of the index that are smaller than mergeFactor times
+ * a level hold that many documents, they are merged into one of the next
+ * level.  Deleted documents are not counted.
+ *
+ * <p>This is the default policy.
+ */
+
+public class LogDocMergePolicy extends MergePolicy {
+    public Vector findMerges(SegmentInfos infos, IndexWriter writer) {
+        Vector merges = new Vector();
+        long targetMergeDocs = (long) writer.flushedDocCount() * writer.mergeFactor;
+        while (targetMergeDocs <= writer.maxMergeDocs) {
+            // find segments smaller than current target size
+            int minSegment = infos.size();
+            int mergeDocs = 0;
+            boolean blocked = false;
+            while (--minSegment >= 0) {
+                SegmentInfo si = infos.info(minSegment);
+                if (writer.isMerging(si)) {
+                    blocked = true;
+                    break;
+                }
+                if (si.numLiveDocs() >= targetMergeDocs)
+                    break;
+                mergeDocs += si.numLiveDocs();
+            }
+
+            if (mergeDocs >= targetMergeDocs) {
+                // the next level is selected once this merge is done
+                merges.addElement(new OneMerge(infos, minSegment + 1, infos.size()));
+                break;
+            }
+            if (mergeDocs > 0 || blocked)
+                break;                  // wait for more at this level
+
+            targetMergeDocs *= writer.mergeFactor;
+        }
+        return merges;
+    }
+}
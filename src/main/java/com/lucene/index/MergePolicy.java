@@ -0,0 +1,38 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Selects the segments that an {@link IndexWriter} merges as segments are
+ * added.  Merges are selected each time a segment is flushed and each time
+ * a merge finishes; the selected merges are then run by the writer's
+ * {@link MergeScheduler}.  Merges done by {@link IndexWriter#optimize} are
+ * not selected by the policy.
+ *
+ * @see LogDocMergePolicy
+ * @see LogByteSizeMergePolicy
+ * @see TieredMergePolicy
+ */
+
+public abstract class MergePolicy {
+    /**
+     * Returns a Vector of {@link OneMerge}s, possibly empty, to be run for
+     * the writer's segments.  Segments being merged, as told by
+     * {@link IndexWriter#isMerging}, must not be selected, nor may a segment
+     * be selected by two of the merges.
+     */
+    public abstract Vector findMerges(SegmentInfos infos, IndexWriter writer)
+            throws IOException;
+
+    /**
+     * Returns the size of a segment in bytes, less the share of its deleted
+     * documents, so that segments with many deletions are merged sooner.
+     */
+    protected static final long size(SegmentInfo si) throws IOException {
+        long bytes = si.sizeInBytes();
+        if (si.docCount == 0)
+            return bytes;
+        return (long) (bytes * ((double) si.numLiveDocs() / si.docCount));
+    }
+}
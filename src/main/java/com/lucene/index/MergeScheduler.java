@@ -0,0 +1,26 @@
+package com.lucene.index;
+
+import java.io.IOException;
+
+/**
+ * Runs the segment merges selected by an {@link IndexWriter}.  A writer
+ * calls {@link #merge} after it has selected new merges, and {@link #close}
+ * when it is closed.  A scheduler takes each merge from {@link
+ * IndexWriter#getNextMerge} and runs it, in any thread, with {@link
+ * IndexWriter#merge(OneMerge)}.
+ *
+ * @see SerialMergeScheduler
+ * @see ConcurrentMergeScheduler
+ */
+
+public abstract class MergeScheduler {
+    /**
+     * Runs, or arranges to run, the writer's pending merges.
+     */
+    public abstract void merge(IndexWriter writer) throws IOException;
+
+    /**
+     * Waits until all merges arranged by this scheduler are finished.
+     */
+    public abstract void close() throws IOException;
+}
@@ -0,0 +1,29 @@
+package com.lucene.index;
+
+/**
+ * A set of segments selected by a {@link MergePolicy} to be merged into a
+ * new one.  The segments are kept in index order, and the merged segment
+ * takes the place of the first of them.
+ */
+public final class OneMerge {
+    SegmentInfo[] segments;                  // in index order
+    String name;                      // of the merged segment
+    boolean delete = true;              // delete the segments' files after
+    BufferedDeletes deletes = new BufferedDeletes();      // made while running
+
+    /**
+     * Creates a merge of segments of the index, given in index order.
+     */
+    public OneMerge(SegmentInfo[] segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Creates a merge of the adjacent segments from start to end - 1.
+     */
+    public OneMerge(SegmentInfos infos, int start, int end) {
+        segments = new SegmentInfo[end - start];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = infos.info(start + i);
+    }
+}
@@ -2,19 +2,88 @@ package com.lucene.index;
 
 import com.lucene.store.Directory;
 
+import java.io.IOException;
+import java.util.Vector;
+
 /**
  *
  * SegmentInfo对应一个document
  *
  */
-final class SegmentInfo {
+public final class SegmentInfo implements Cloneable {
     public String name;                  // unique name in dir
     public int docCount;                  // number of docs in seg
     public Directory dir;                  // where segment resides
 
+    public long delGen = -1;              // deletions generation, -1 if none
+    public int delCount = 0;              // number of deleted docs
+    public boolean isCompoundFile = false;      // if stored in a .cfs file
+
+    private long sizeInBytes = -1;          // cached, as files never change
+
     public SegmentInfo(String name, int docCount, Directory dir) {
         this.name = name;
         this.docCount = docCount;
         this.dir = dir;
     }
+
+    public Object clone() {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
+    /**
+     * Returns true iff some documents of this segment are deleted.
+     */
+    public final boolean hasDeletions() {
+        return delGen != -1;
+    }
+
+    /**
+     * Returns the name of the file holding this segment's deletions.  Each
+     * commit of new deletions writes a new generation, so a file, once
+     * written, is never changed.  Generation zero is the name used by indexes
+     * written before generations were recorded.
+     */
+    final String delFileName() {
+        if (delGen == 0)
+            return name + ".del";
+        return name + "_" + Long.toString(delGen, Character.MAX_RADIX) + ".del";
+    }
+
+    /**
+     * Returns the number of documents that are not deleted.  The deletions of
+     * segments listed in old segments files are only counted once read.
+     */
+    public final int numLiveDocs() {
+        return delCount > 0 ? docCount - delCount : docCount;
+    }
+
+    /**
+     * Returns the total length of the segment's files, excluding deletions.
+     */
+    public final long sizeInBytes() throws IOException {
+        if (sizeInBytes == -1) {
+            Vector files = new Vector();
+            if (isCompoundFile)
+                files.addElement(name + ".cfs");
+            else
+                SegmentReader.segmentFiles(name, new FieldInfos(dir, name + ".fnm"), files);
+            long size = 0;
+            for (int i = 0; i < files.size(); i++)
+                size += dir.fileLength((String) files.elementAt(i));
+            sizeInBytes = size;
+        }
+        return sizeInBytes;
+    }
+
+    /**
+     * Moves to the next deletions generation.
+     */
+    final void advanceDelGen() {
+        delGen = delGen < 1 ? 1 : delGen + 1;
+    }
 }
@@ -7,9 +7,25 @@ import com.lucene.store.Directory;
 import com.lucene.store.InputStream;
 import com.lucene.store.OutputStream;
 
-final class SegmentInfos extends Vector {
+/**
+ * The segments of an index, in index order, as given to a {@link
+ * MergePolicy}.
+ */
+public final class SegmentInfos extends Vector {
 
-    public int counter = 0;// doc总数量,计数器,用来命名每个document对应的SegmentInfo的
+    /**
+     * The version of the segments file format.  It is negative so that it is
+     * not mistaken for the counter which begins files in the original format.
+     */
+    static final int FORMAT = -1;
+
+    /**
+     * Held while the segments file is read, changed and written again, so
+     * that commits by writers and readers in this process do not interleave.
+     */
+    static final Object COMMIT_LOCK = new Object();
+
+    int counter = 0;// doc总数量,计数器,用来命名每个document对应的SegmentInfo的
 
     public final SegmentInfo info(int i) {
         return (SegmentInfo) elementAt(i);
@@ -20,13 +36,31 @@ final class SegmentInfos extends Vector {
      * @param directory
      * @throws IOException
      */
-    public final void read(Directory directory) throws IOException {
+    final void read(Directory directory) throws IOException {
         InputStream input = directory.openFile("segments");
         try {
-            counter = input.readInt();          // read counter
+            int format = input.readInt();
+            if (format < 0) {                  // file has a format version
+                if (format < FORMAT)
+                    throw new IOException("unknown segments format: " + format);
+                counter = input.readInt();          // read counter
+            } else {
+                counter = format;              // original format
+            }
+
             for (int i = input.readInt(); i > 0; i--) { // read segmentInfos
                 SegmentInfo si = new SegmentInfo(input.readString(), input.readInt(),
                         directory);
+                if (format < 0) {
+                    si.delGen = input.readLong();
+                    si.delCount = input.readInt();
+                    si.isCompoundFile = input.readByte() != 0;
+                } else {                      // must look at files
+                    if (directory.fileExists(si.name + ".del"))
+                        si.delGen = 0;
+                    si.delCount = -1;              // unknown until read
+                    si.isCompoundFile = directory.fileExists(si.name + ".cfs");
+                }
                 addElement(si);
             }
         } finally {
@@ -37,20 +71,24 @@ final class SegmentInfos extends Vector {
     /**
      * 写入数据到segments
      *
-     * 文件内容: counter|size()|docName1|docCount1|docName2|docCount2|docName3|docCount3|...|...
+     * 文件内容: FORMAT|counter|size()|&lt;name|docCount|delGen|delCount|isCompoundFile&gt;...
      *
      * @param directory
      * @throws IOException
      */
-    public final void write(Directory directory) throws IOException {
+    final void write(Directory directory) throws IOException {
         OutputStream output = directory.createFile("segments.new");
         try {
+            output.writeInt(FORMAT);              // write format version
             output.writeInt(counter);              // write counter
             output.writeInt(size());              // write infos
             for (int i = 0; i < size(); i++) {
                 SegmentInfo si = info(i);
                 output.writeString(si.name);
                 output.writeInt(si.docCount);
+                output.writeLong(si.delGen);
+                output.writeInt(si.delCount);
+                output.writeByte((byte) (si.isCompoundFile ? 1 : 0));
             }
         } finally {
             output.close();
@@ -59,4 +97,84 @@ final class SegmentInfos extends Vector {
         // install new segment info
         directory.renameFile("segments.new", "segments");
     }
+
+    /**
+     * Updates the deletions of segments from the segments file in a
+     * directory, where that file records a later generation, e.g., because
+     * an IndexReader has since deleted documents.
+     */
+    final void readDeletions(Directory directory) throws IOException {
+        SegmentInfos current = new SegmentInfos();
+        current.read(directory);
+        for (int i = 0; i < size(); i++) {
+            SegmentInfo si = info(i);
+            if (si.dir != directory)
+                continue;
+            SegmentInfo other = current.info(si.name);
+            if (other != null && other.delGen > si.delGen) {
+                si.delGen = other.delGen;
+                si.delCount = other.delCount;
+            }
+        }
+    }
+
+    /**
+     * Commits the pending deletions of segment readers to the segments file
+     * of their directory.  The file is re-read first, so that segments added
+     * or merged since the readers were opened are preserved, as are the
+     * deletions other readers have committed since.  If any reader's segment
+     * has since been merged away, none of the deletions are committed: an
+     * IOException is thrown and the deletions are no longer pending.  Files
+     * holding superseded deletions are then removed.
+     */
+    static final void commitDeletions(SegmentReader[] readers)
+            throws IOException {
+        Directory directory = null;
+        for (int i = 0; i < readers.length; i++)
+            if (readers[i].hasPendingDeletions())
+                directory = readers[i].directory;
+        if (directory == null)
+            return;                      // no new deletions
+
+        Vector obsolete = new Vector();
+        synchronized (COMMIT_LOCK) {
+            SegmentInfos infos = new SegmentInfos();
+            infos.read(directory);
+            for (int i = 0; i < readers.length; i++) {
+                if (readers[i].hasPendingDeletions() &&
+                        infos.info(readers[i].segmentInfo.name) == null) {
+                    for (int j = 0; j < readers.length; j++)
+                        readers[j].clearPendingDeletions();      // none committed
+                    throw new IOException("segment " + readers[i].segmentInfo.name
+                            + " has been merged; reopen the reader to delete");
+                }
+            }
+            for (int i = 0; i < readers.length; i++) {
+                if (readers[i].hasPendingDeletions()) {
+                    String old = readers[i].writeDeletions
+                            (infos.info(readers[i].segmentInfo.name));
+                    if (old != null)
+                        obsolete.addElement(old);
+                }
+            }
+            infos.write(directory);
+        }
+
+        for (int i = 0; i < obsolete.size(); i++) {
+            try {
+                directory.deleteFile((String) obsolete.elementAt(i));
+            } catch (IOException e) {              // e.g., still open
+            }
+        }
+    }
+
+    /**
+     * Returns the info for the named segment, or null.
+     */
+    final SegmentInfo info(String name) {
+        for (int i = 0; i < size(); i++)
+            if (info(i).name.equals(name))
+                return info(i);
+        return null;
+    }
 }
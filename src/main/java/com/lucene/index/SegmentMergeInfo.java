@@ -20,6 +20,7 @@ package com.lucene.index;
 
 import java.io.IOException;
 
+import com.lucene.store.InputStream;
 import com.lucene.util.BitVector;
 
 final class SegmentMergeInfo {
@@ -29,7 +30,18 @@ final class SegmentMergeInfo {
     SegmentReader reader;
     int[] docMap = null;                  // maps around deleted docs
 
-    SegmentMergeInfo(int b, SegmentTermEnum te, SegmentReader r) {
+    int ord;                              // set by SegmentMergeQueue
+    int fieldRank;
+    String rankedField = null;
+
+    // without deletions, positions are copied: the next term's pointers
+    // mark where this term's end
+    SegmentTermEnum lookahead = null;
+    InputStream freqStream = null;
+    InputStream proxStream = null;
+
+    SegmentMergeInfo(int b, SegmentTermEnum te, SegmentReader r)
+            throws IOException {
         base = b;
         reader = r;
         termEnum = te;
@@ -50,9 +62,24 @@ final class SegmentMergeInfo {
         }
     }
 
+    /**
+     * Prepares to copy postings in bulk, if the segment has no deletions.
+     * Only merges need this; it must be called before the first next().
+     */
+    final void initCopy() throws IOException {
+        if (docMap != null)
+            return;
+        lookahead = (SegmentTermEnum) reader.terms();
+        lookahead.next();                  // one term ahead
+        freqStream = reader.openFreqStream();
+        proxStream = reader.openProxStream();
+    }
+
     final boolean next() throws IOException {
         if (termEnum.next()) {
             term = termEnum.term();
+            if (lookahead != null)
+                lookahead.next();
             return true;
         } else {
             term = null;
@@ -62,6 +89,11 @@ final class SegmentMergeInfo {
 
     final void close() throws IOException {
         termEnum.close();
+        if (lookahead != null) {
+            lookahead.close();
+            reader.closeFreqStream(freqStream);
+            reader.closeProxStream(proxStream);
+        }
     }
 }
 
@@ -19,27 +19,144 @@
 package com.lucene.index;
 
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
 
-import com.lucene.util.PriorityQueue;
+/* A tournament tree over the term enumerations of several segments.  Each
+   inner node holds the winner of the match between its children, so moving
+   a segment to its next term replays one comparison per level, against two
+   per level when sifting a heap.  Fields are compared by their rank among
+   the field names of all segments, so strings are only compared for terms
+   of the same field. */
+final class SegmentMergeQueue {
+    private SegmentMergeInfo[] players;
+    private boolean[] active;                  // not popped, not exhausted
+    private int numPlayers = 0;
+    private int size = 0;
 
-final class SegmentMergeQueue extends PriorityQueue {
-    SegmentMergeQueue(int size) {
-        initialize(size);
+    private int[] tree;                          // [1] is the winner
+    private Hashtable fieldRanks = new Hashtable();
+
+    SegmentMergeQueue(int maxSize) {
+        players = new SegmentMergeInfo[maxSize];
+        active = new boolean[maxSize];
     }
 
-    protected final boolean lessThan(Object a, Object b) {
-        SegmentMergeInfo stiA = (SegmentMergeInfo) a;
-        SegmentMergeInfo stiB = (SegmentMergeInfo) b;
-        int comparison = stiA.term.compareTo(stiB.term);
-        if (comparison == 0)
-            return stiA.base < stiB.base;
-        else
-            return comparison < 0;
+    /**
+     * Adds a segment before the first call to top() or pop(), or returns a
+     * popped one once it has been advanced.
+     */
+    final void put(SegmentMergeInfo smi) {
+        if (tree == null) {
+            smi.ord = numPlayers;
+            players[numPlayers++] = smi;
+            addFields(smi.reader.fieldInfos);
+        }
+        active[smi.ord] = true;
+        size++;
+        if (tree != null) {
+            rank(smi);
+            adjust(smi.ord);
+        }
+    }
+
+    /**
+     * Returns the segment positioned on the least term, or null.
+     */
+    final SegmentMergeInfo top() {
+        if (tree == null)
+            build();
+        return size > 0 ? players[tree[1]] : null;
+    }
+
+    /**
+     * Removes and returns the segment positioned on the least term.
+     */
+    final SegmentMergeInfo pop() {
+        SegmentMergeInfo top = top();
+        if (top != null) {
+            active[top.ord] = false;
+            size--;
+            adjust(top.ord);
+        }
+        return top;
+    }
+
+    final int size() {
+        return size;
     }
 
     final void close() throws IOException {
-        while (top() != null)
-            ((SegmentMergeInfo) pop()).close();
+        for (int i = 0; i < numPlayers; i++)
+            if (active[i]) {
+                active[i] = false;
+                players[i].close();
+            }
+        size = 0;
     }
 
+    private final void addFields(FieldInfos fieldInfos) {
+        for (int i = 0; i < fieldInfos.size(); i++)
+            fieldRanks.put(fieldInfos.fieldName(i), fieldRanks);
+    }
+
+    private final void build() {
+        String[] names = new String[fieldRanks.size()];
+        int n = 0;
+        for (Enumeration e = fieldRanks.keys(); e.hasMoreElements(); ) {
+            String name = (String) e.nextElement();
+            int i = n++;
+            while (i > 0 && names[i - 1].compareTo(name) > 0) {
+                names[i] = names[i - 1];              // insertion sort
+                i--;
+            }
+            names[i] = name;
+        }
+        for (int i = 0; i < n; i++)
+            fieldRanks.put(names[i], Integer.valueOf(i));
+
+        int k = numPlayers;
+        tree = new int[2 * Math.max(k, 1)];
+        for (int i = 0; i < k; i++) {
+            rank(players[i]);
+            tree[k + i] = i;                          // leaves
+        }
+        for (int node = k - 1; node > 0; node--)      // play bottom up
+            play(node);
+    }
+
+    /* Replays the matches from player i's leaf to the root. */
+    private final void adjust(int i) {
+        for (int node = (i + numPlayers) >>> 1; node > 0; node >>>= 1)
+            play(node);
+    }
+
+    private final void play(int node) {
+        int a = tree[2 * node];
+        int b = tree[2 * node + 1];
+        tree[node] = lessThan(b, a) ? b : a;
+    }
+
+    private final boolean lessThan(int a, int b) {
+        if (!active[a])
+            return false;
+        if (!active[b])
+            return true;
+        SegmentMergeInfo smiA = players[a];
+        SegmentMergeInfo smiB = players[b];
+        if (smiA.fieldRank != smiB.fieldRank)
+            return smiA.fieldRank < smiB.fieldRank;
+        int comparison = smiA.term.text.compareTo(smiB.term.text);
+        if (comparison == 0)
+            return a < b;                          // segments in order
+        return comparison < 0;
+    }
+
+    private final void rank(SegmentMergeInfo smi) {
+        Term term = smi.term;
+        if (term != null && term.field != smi.rankedField) {
+            smi.rankedField = term.field;          // fields are interned
+            smi.fieldRank = ((Integer) fieldRanks.get(term.field)).intValue();
+        }
+    }
 }
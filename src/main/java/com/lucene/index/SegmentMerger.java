@@ -4,6 +4,7 @@ import com.lucene.store.Directory;
 import com.lucene.store.InputStream;
 import com.lucene.store.OutputStream;
 import com.lucene.util.BitVector;
+import com.lucene.search.Similarity;
 
 import java.io.IOException;
 import java.util.Vector;
@@ -15,6 +16,16 @@ final class SegmentMerger {
     private Vector readers = new Vector();
     private FieldInfos fieldInfos;
 
+    /** Merged files are written sequentially, so buffer them generously. */
+    static final int MERGE_BUFFER_SIZE = 16384;
+
+    /**
+     * If true, stored fields and norms are merged by threads of their own
+     * while terms are merged by the calling thread.  The three write
+     * disjoint files and read the segments through separate streams.
+     */
+    boolean parallel = false;
+
     SegmentMerger(Directory dir, String name) {
         directory = dir;
         segment = name;
@@ -30,9 +41,23 @@ final class SegmentMerger {
 
     final void merge() throws IOException {
         try {
-            mergeFields();
-            mergeTerms();
-            mergeNorms();
+            mergeFieldInfos();
+            if (parallel) {
+                MergeThread fields = new MergeThread(FIELDS);
+                MergeThread norms = new MergeThread(NORMS);
+                fields.start();
+                norms.start();
+                try {
+                    mergeTerms();
+                } finally {
+                    fields.finish();              // before readers are closed
+                    norms.finish();
+                }
+            } else {
+                mergeFields();
+                mergeTerms();
+                mergeNorms();
+            }
 
         } finally {
             for (int i = 0; i < readers.size(); i++) {  // close readers
@@ -42,30 +67,138 @@ final class SegmentMerger {
         }
     }
 
-    private final void mergeFields() throws IOException {
+    /**
+     * Combines the files of the merged segment into a compound file and
+     * deletes them.  Must be called after {@link #merge}.
+     */
+    final void createCompoundFile() throws IOException {
+        createCompoundFile(directory, segment, fieldInfos);
+    }
+
+    /**
+     * Combines the files of a segment into a compound file and deletes them.
+     */
+    static final void createCompoundFile(Directory directory, String segment,
+                                         FieldInfos fieldInfos)
+            throws IOException {
+        Vector files = new Vector();
+        SegmentReader.segmentFiles(segment, fieldInfos, files);
+
+        CompoundFileWriter writer =
+                new CompoundFileWriter(directory, segment + ".cfs.tmp");
+        for (int i = 0; i < files.size(); i++)
+            writer.addFile((String) files.elementAt(i));
+        writer.close();
+        directory.renameFile(segment + ".cfs.tmp", segment + ".cfs");
+
+        for (int i = 0; i < files.size(); i++)
+            directory.deleteFile((String) files.elementAt(i));
+    }
+
+    private final void mergeFieldInfos() throws IOException {
         fieldInfos = new FieldInfos();          // merge field names
         for (int i = 0; i < readers.size(); i++) {
             SegmentReader reader = (SegmentReader) readers.elementAt(i);
             fieldInfos.add(reader.fieldInfos);
         }
         fieldInfos.write(directory, segment + ".fnm");
+    }
+
+    private static final int FIELDS = 0;
+    private static final int NORMS = 1;
+
+    /* Runs a phase of the merge.  finish() waits for it and rethrows what
+       it threw. */
+    private final class MergeThread extends Thread {
+        private int phase;
+        private Throwable exception = null;
+
+        MergeThread(int phase) {
+            this.phase = phase;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                if (phase == FIELDS)
+                    mergeFields();
+                else
+                    mergeNorms();
+            } catch (Throwable e) {
+                exception = e;
+            }
+        }
+
+        final void finish() throws IOException {
+            boolean interrupted = false;
+            while (isAlive()) {
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    interrupted = true;          // must wait regardless
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            if (exception instanceof IOException)
+                throw (IOException) exception;
+            if (exception instanceof RuntimeException)
+                throw (RuntimeException) exception;
+            if (exception instanceof Error)
+                throw (Error) exception;
+        }
+    }
 
+    private final void mergeFields() throws IOException {
         FieldsWriter fieldsWriter =              // merge field values
                 new FieldsWriter(directory, segment, fieldInfos);
         try {
+            int[] lengths = new int[MAX_RAW_MERGE_DOCS];
+            byte[] buffer = new byte[MERGE_BUFFER_SIZE];
             for (int i = 0; i < readers.size(); i++) {
                 SegmentReader reader = (SegmentReader) readers.elementAt(i);
                 BitVector deletedDocs = reader.deletedDocs;
                 int maxDoc = reader.maxDoc();
-                for (int j = 0; j < maxDoc; j++)
-                    if (deletedDocs == null || !deletedDocs.get(j)) // skip deleted docs
-                        fieldsWriter.addDocument(reader.document(j));
+                if (sameFieldNumbers(reader.fieldInfos)) {
+                    // copy runs of live docs as they are
+                    for (int j = 0; j < maxDoc; ) {
+                        if (deletedDocs != null && deletedDocs.get(j)) {
+                            j++;                  // skip deleted docs
+                            continue;
+                        }
+                        int start = j;
+                        do {
+                            j++;
+                        } while (j < maxDoc && j - start < MAX_RAW_MERGE_DOCS &&
+                                (deletedDocs == null || !deletedDocs.get(j)));
+                        InputStream stream =
+                                reader.fieldsReader.rawDocs(lengths, start, j - start);
+                        fieldsWriter.addRawDocuments(stream, lengths, j - start, buffer);
+                    }
+                } else {
+                    for (int j = 0; j < maxDoc; j++)
+                        if (deletedDocs == null || !deletedDocs.get(j)) // skip deleted docs
+                            fieldsWriter.addDocument(reader.document(j));
+                }
             }
         } finally {
             fieldsWriter.close();
         }
     }
 
+    /** The most documents whose stored fields are copied at once. */
+    private static final int MAX_RAW_MERGE_DOCS = 4096;
+
+    /* Returns true iff a segment's fields have the same numbers in the
+       merged segment, so that its stored fields may be copied as they are. */
+    private final boolean sameFieldNumbers(FieldInfos other) {
+        for (int i = 0; i < other.size(); i++)
+            if (!other.fieldName(i).equals(fieldInfos.fieldName(i)))
+                return false;
+        return true;
+    }
+
     private OutputStream freqOutput = null;
     private OutputStream proxOutput = null;
     private TermInfosWriter termInfosWriter = null;
@@ -73,8 +206,8 @@ final class SegmentMerger {
 
     private final void mergeTerms() throws IOException {
         try {
-            freqOutput = directory.createFile(segment + ".frq");
-            proxOutput = directory.createFile(segment + ".prx");
+            freqOutput = directory.createFile(segment + ".frq", MERGE_BUFFER_SIZE);
+            proxOutput = directory.createFile(segment + ".prx", MERGE_BUFFER_SIZE);
             termInfosWriter =
                     new TermInfosWriter(directory, segment, fieldInfos);
 
@@ -95,6 +228,7 @@ final class SegmentMerger {
             SegmentReader reader = (SegmentReader) readers.elementAt(i);
             SegmentTermEnum termEnum = (SegmentTermEnum) reader.terms();
             SegmentMergeInfo smi = new SegmentMergeInfo(base, termEnum, reader);
+            smi.initCopy();
             base += reader.numDocs();
             if (smi.next())
                 queue.put(smi);                  // initialize queue
@@ -106,13 +240,13 @@ final class SegmentMerger {
 
         while (queue.size() > 0) {
             int matchSize = 0;              // pop matching terms
-            match[matchSize++] = (SegmentMergeInfo) queue.pop();
+            match[matchSize++] = queue.pop();
             Term term = match[0].term;
-            SegmentMergeInfo top = (SegmentMergeInfo) queue.top();
+            SegmentMergeInfo top = queue.top();
 
-            while (top != null && term.compareTo(top.term) == 0) {
-                match[matchSize++] = (SegmentMergeInfo) queue.pop();
-                top = (SegmentMergeInfo) queue.top();
+            while (top != null && term.equals(top.term)) {
+                match[matchSize++] = queue.pop();
+                top = queue.top();
             }
 
             mergeTermInfo(match, matchSize);          // add new TermInfo
@@ -134,19 +268,30 @@ final class SegmentMerger {
         long freqPointer = freqOutput.getFilePointer();
         long proxPointer = proxOutput.getFilePointer();
 
-        int df = appendPostings(smis, n);          // append posting data
+        FieldInfo fi = fieldInfos.fieldInfo(smis[0].term.field);
+        skipWriter.reset(freqPointer, proxPointer);
+        blockWriter.reset(freqOutput, fi.omitFreqs);
+        int df = appendPostings(smis, n, fi);          // append posting data
+        blockWriter.finish();
 
         if (df > 0) {
             // add an entry to the dictionary with pointers to prox and freq files
             termInfo.set(df, freqPointer, proxPointer);
+            if (df > SkipListWriter.SKIP_INTERVAL)
+                termInfo.skipOffset = (int) (skipWriter.write(freqOutput) - freqPointer);
             termInfosWriter.add(smis[0].term, termInfo);
         }
     }
 
+    private final SkipListWriter skipWriter = new SkipListWriter();
+    private final BlockPostings blockWriter = new BlockPostings();
+
     private final SegmentTermPositions postings = new SegmentTermPositions();
 
-    private final int appendPostings(SegmentMergeInfo[] smis, int n)
-            throws IOException {
+    /* The merged field omits positions or freqs if any segment does, so
+       those of other segments are dropped here. */
+    private final int appendPostings(SegmentMergeInfo[] smis, int n,
+                                     FieldInfo fi) throws IOException {
         int lastDoc = 0;
         int df = 0;                      // number of docs w/ term
         for (int i = 0; i < n; i++) {
@@ -154,7 +299,13 @@ final class SegmentMerger {
             int base = smi.base;
             int[] docMap = smi.docMap;
             smi.termEnum.termInfo(termInfo);
-            postings.open(smi.reader, termInfo);
+            if (docMap == null) {              // no deletions: copy
+                lastDoc = copyPostings(smi, termInfo, lastDoc, df, fi);
+                df += termInfo.docFreq;
+                continue;
+            }
+            postings.open(smi.reader, smi.reader.fieldInfos.fieldInfo(fi.name),
+                    termInfo);
             try {
                 while (postings.next()) {
                     int doc;
@@ -166,21 +317,18 @@ final class SegmentMerger {
                     if (doc < lastDoc)
                         throw new IllegalStateException("docs out of order");
 
-                    int docCode = (doc - lastDoc) << 1;      // use low bit to flag freq=1
+                    skipWriter.addDoc(lastDoc, freqOutput.getFilePointer(),
+                            proxOutput.getFilePointer());
+                    int freq = postings.freq;
+                    blockWriter.add(doc, freq);
                     lastDoc = doc;
 
-                    int freq = postings.freq;
-                    if (freq == 1) {
-                        freqOutput.writeVInt(docCode | 1);      // write doc & freq=1
-                    } else {
-                        freqOutput.writeVInt(docCode);      // write doc
-                        freqOutput.writeVInt(freq);          // write frequency in doc
+                    if (!fi.omitPositions) {
+                        int lastPosition = 0;              // write position deltas
+                        for (int j = 0; j < freq; j++)
+                            proxOutput.writeVInt(postings.nextPosition() - lastPosition);
                     }
 
-                    int lastPosition = 0;              // write position deltas
-                    for (int j = 0; j < freq; j++)
-                        proxOutput.writeVInt(postings.nextPosition() - lastPosition);
-
                     df++;
                 }
             } finally {
@@ -190,20 +338,113 @@ final class SegmentMerger {
         return df;
     }
 
+    private final TermInfo nextTermInfo = new TermInfo();
+    private final byte[] copyBuffer = new byte[MERGE_BUFFER_SIZE];
+    private final int[] copyDocs = new int[BlockPostings.BLOCK_SIZE];
+    private final int[] copyFreqs = new int[BlockPostings.BLOCK_SIZE];
+    private final byte[] copyPacked = new byte[BlockPostings.BLOCK_SIZE * 4];
+
+    /* Appends the postings of a term in a segment without deletions.  The
+       .frq data is decoded a block at a time and re-written, since blocks
+       are aligned to the start of the merged term; the .prx data is copied,
+       and only scanned if a skip entry falls in the copy.  Returns the last
+       document number. */
+    private final int copyPostings(SegmentMergeInfo smi, TermInfo ti, int lastDoc,
+                                   int df, FieldInfo fi) throws IOException {
+        InputStream freq = smi.freqStream;
+        InputStream prox = smi.proxStream;
+        freq.seek(ti.freqPointer);
+        prox.seek(ti.proxPointer);
+        int interval = SkipListWriter.SKIP_INTERVAL;
+        boolean scanProx = !fi.omitPositions &&      // a skip entry falls in the copy
+                (df + ti.docFreq - 1) / interval * interval >= Math.max(df, 1);
+        boolean blocked = smi.reader.tis.blockedPostings();
+        boolean omitFreqs = smi.reader.fieldInfos.fieldInfo(fi.name).omitFreqs;
+        long proxShift = proxOutput.getFilePointer() - ti.proxPointer;
+
+        int doc = smi.base;
+        int lastFreq = 0;
+        for (int left = ti.docFreq; left > 0; ) {
+            int n;
+            if (blocked && left >= BlockPostings.BLOCK_SIZE) {
+                n = BlockPostings.BLOCK_SIZE;
+                BlockPostings.readBlock(freq, copyDocs, 0, copyPacked);
+                if (!omitFreqs)
+                    BlockPostings.readBlock(freq, copyFreqs, 0, copyPacked);
+                for (int i = 0; i < n; i++)
+                    copyFreqs[i] = omitFreqs ? 1 : copyFreqs[i] + 1;
+            } else {
+                n = Math.min(left, BlockPostings.BLOCK_SIZE);
+                for (int i = 0; i < n; i++) {
+                    if (omitFreqs) {
+                        copyDocs[i] = freq.readVInt();
+                        copyFreqs[i] = 1;
+                        continue;
+                    }
+                    int docCode = freq.readVInt();
+                    copyDocs[i] = docCode >>> 1;
+                    copyFreqs[i] = (docCode & 1) != 0 ? 1 : freq.readVInt();
+                }
+            }
+            left -= n;
+
+            for (int i = 0; i < n; i++) {              // copyDocs holds deltas
+                doc += copyDocs[i];
+                if (doc < lastDoc)
+                    throw new IllegalStateException("docs out of order");
+                if (scanProx)
+                    for (int j = lastFreq; j > 0; j--)
+                        prox.readVInt();
+                skipWriter.addDoc(lastDoc, freqOutput.getFilePointer(),
+                        prox.getFilePointer() + proxShift);  // prox only used if scanned
+                blockWriter.add(doc, copyFreqs[i]);
+                lastDoc = doc;
+                lastFreq = copyFreqs[i];
+            }
+        }
+
+        if (fi.omitPositions)
+            return lastDoc;
+
+        long proxEnd;
+        if (smi.lookahead.term() != null) {
+            smi.lookahead.termInfo(nextTermInfo);
+            proxEnd = nextTermInfo.proxPointer;
+        } else {
+            proxEnd = prox.length();              // last term
+        }
+        prox.seek(ti.proxPointer);
+        copyBytes(prox, proxOutput, proxEnd - ti.proxPointer);
+
+        return lastDoc;
+    }
+
+    private final void copyBytes(InputStream input, OutputStream output,
+                                 long length) throws IOException {
+        while (length > 0) {
+            int chunk = (int) Math.min(length, copyBuffer.length);
+            input.readBytes(copyBuffer, 0, chunk);
+            output.writeBytes(copyBuffer, chunk);
+            length -= chunk;
+        }
+    }
+
     private final void mergeNorms() throws IOException {
         for (int i = 0; i < fieldInfos.size(); i++) {
             FieldInfo fi = fieldInfos.fieldInfo(i);
-            if (fi.isIndexed) {
-                OutputStream output = directory.createFile(segment + ".f" + i);
+            if (fi.isIndexed && !fi.omitNorms) {
+                OutputStream output =
+                        directory.createFile(segment + ".f" + i, MERGE_BUFFER_SIZE);
                 try {
                     for (int j = 0; j < readers.size(); j++) {
                         SegmentReader reader = (SegmentReader) readers.elementAt(j);
                         BitVector deletedDocs = reader.deletedDocs;
                         InputStream input = reader.normStream(fi.name);
+                        byte missing = reader.omitsNorms(fi.name) ? Similarity.norm(1) : (byte) 0;
                         int maxDoc = reader.maxDoc();
                         try {
                             for (int k = 0; k < maxDoc; k++) {
-                                byte norm = input != null ? input.readByte() : (byte) 0;
+                                byte norm = input != null ? input.readByte() : missing;
                                 if (deletedDocs == null || !deletedDocs.get(k))
                                     output.writeByte(norm);
                             }
@@ -5,80 +5,263 @@ import java.util.Hashtable;
 import java.util.Vector;
 
 import com.lucene.util.BitVector;
+import com.lucene.search.Similarity;
 import com.lucene.store.Directory;
 import com.lucene.store.InputStream;
 import com.lucene.document.Document;
 
 final class SegmentReader extends IndexReader {
     Directory directory;
-    private boolean closeDirectory = false;
+    private int[] directoryRefs = null;      // readers to close, if owned
     private String segment;
+    SegmentInfo segmentInfo;
+
+    private CompoundFileReader cfsReader = null;  // non-null for compound segments
 
     FieldInfos fieldInfos;
-    private FieldsReader fieldsReader;
+    FieldsReader fieldsReader;
 
     TermInfosReader tis;
 
     BitVector deletedDocs = null;
     private boolean deletedDocsDirty = false;
+    private boolean deletedDocsShared = false;      // copy before changing
 
-    private InputStream freqStream;
-    private InputStream proxStream;
+    private InputStream freqStream;              // cloned by each TermDocs
+    private InputStream proxStream;              // cloned by each TermPositions
 
     private Hashtable normsCache = new Hashtable();
 
+    /** Postings are mostly scanned sequentially, so read them in big chunks. */
+    static final int POSTINGS_BUFFER_SIZE = 4096;
+
     SegmentReader(SegmentInfo si, boolean closeDir)
             throws IOException {
         this(si);
-        closeDirectory = closeDir;
+        if (closeDir)
+            directoryRefs = new int[]{1};
     }
 
     SegmentReader(SegmentInfo si)
             throws IOException {
         directory = si.dir;
         segment = si.name;
+        segmentInfo = si;
+
+        Directory cfsDir = directory;              // where the segment's files are
+        if (si.isCompoundFile) {
+            cfsReader = new CompoundFileReader(directory, segment + ".cfs");
+            cfsDir = cfsReader;
+        }
+
+        fieldInfos = new FieldInfos(cfsDir, segment + ".fnm");
+        fieldsReader = new FieldsReader(cfsDir, segment, fieldInfos);
+
+        tis = new TermInfosReader(cfsDir, segment, fieldInfos);
+
+        if (si.hasDeletions()) {
+            deletedDocs = new BitVector(directory, si.delFileName());
+            si.delCount = deletedDocs.count();
+        }
+
+        freqStream = cfsDir.openFile(segment + ".frq", POSTINGS_BUFFER_SIZE);
+        proxStream = cfsDir.openFile(segment + ".prx", POSTINGS_BUFFER_SIZE);
+    }
+
+    public final IndexReader reopen() throws IOException {
+        IndexReader reader = reopen(directory, new SegmentReader[]{this});
+        return reader == null ? this : reader;
+    }
+
+    /* Shares the files and caches of another reader of the same segment.
+       Deletions are set by the caller. */
+    private SegmentReader(SegmentReader core, SegmentInfo si) {
+        directory = core.directory;
+        segment = core.segment;
+        segmentInfo = si;
+        cfsReader = core.cfsReader;
+        fieldInfos = core.fieldInfos;
+        fieldsReader = core.fieldsReader;
+        tis = core.tis;
+        freqStream = core.freqStream;
+        proxStream = core.proxStream;
+        normsCache = core.normsCache;
+        coreRefs = core.coreRefs;
+        synchronized (coreRefs) {
+            coreRefs[0]++;
+        }
+        shareDirectory(core.directoryRefs);
+    }
+
+    private int refCount = 1;                  // by readers sharing this
+    private int[] coreRefs = {1};              // by readers sharing the files
+
+    /**
+     * Returns a reader of the segment as described by <code>si</code>: this
+     * one, shared, if its deletions are unchanged, or else a new reader
+     * sharing this one's files and caches.
+     */
+    final synchronized SegmentReader reopen(SegmentInfo si) throws IOException {
+        if (si.delGen == segmentInfo.delGen) {
+            refCount++;
+            return this;
+        }
+        SegmentReader reader = new SegmentReader(this, si);
+        if (si.hasDeletions()) {
+            reader.deletedDocs = new BitVector(directory, si.delFileName());
+            si.delCount = reader.deletedDocs.count();
+        }
+        return reader;
+    }
+
+    /**
+     * Returns a new reader sharing this one's files, caches and deletions.
+     * Whichever of the two first deletes a document copies the deletions
+     * first, so that neither sees the other's.
+     */
+    final synchronized SegmentReader share() {
+        SegmentReader reader =
+                new SegmentReader(this, (SegmentInfo) segmentInfo.clone());
+        if (deletedDocs != null) {
+            reader.deletedDocs = deletedDocs;
+            reader.deletedDocsShared = true;
+            deletedDocsShared = true;
+        }
+        return reader;
+    }
+
+    /* Makes this reader one of those that close the directory, if any. */
+    final void shareDirectory(int[] refs) {
+        if (refs == null)
+            return;
+        synchronized (refs) {
+            refs[0]++;
+        }
+        directoryRefs = refs;
+    }
 
-        fieldInfos = new FieldInfos(directory, segment + ".fnm");
-        fieldsReader = new FieldsReader(directory, segment, fieldInfos);
+    /* Returns the count of readers sharing the files, which are closed when
+       it drops to zero. */
+    final int[] coreRefs() {
+        return coreRefs;
+    }
 
-        tis = new TermInfosReader(directory, segment, fieldInfos);
+    /* Returns the count held by readers to close the directory, or null. */
+    final int[] directoryRefs() {
+        return directoryRefs;
+    }
 
-        if (hasDeletions(si))
-            deletedDocs = new BitVector(directory, segment + ".del");
+    private static final boolean release(int[] refs) {
+        synchronized (refs) {
+            return --refs[0] == 0;
+        }
     }
 
+    /**
+     * Commits pending deletions, then releases this reader, even if they
+     * could not be committed.
+     */
     public final synchronized void close() throws IOException {
-        if (deletedDocsDirty) {
-            deletedDocs.write(directory, segment + ".tmp");
-            directory.renameFile(segment + ".tmp", segment + ".del");
-            deletedDocsDirty = false;
+        if (refCount == 0)
+            return;                      // already closed
+        try {
+            SegmentInfos.commitDeletions(new SegmentReader[]{this});
+        } finally {
+            decRef();
         }
+    }
+
+    /* Closes the files, once no reader shares them. */
+    private final void decRef() throws IOException {
+        if (--refCount > 0)
+            return;                      // still shared
 
-        fieldsReader.close();
-        tis.close();
+        if (release(coreRefs)) {
+            fieldsReader.close();
+            tis.close();
 
-        if (freqStream != null)
             freqStream.close();
-        if (proxStream != null)
             proxStream.close();
 
-        if (closeDirectory)
+            if (cfsReader != null)
+                cfsReader.close();
+        }
+
+        if (directoryRefs != null && release(directoryRefs))
             directory.close();
     }
 
-    final static boolean hasDeletions(SegmentInfo si) throws IOException {
-        return si.dir.fileExists(si.name + ".del");
+    final synchronized boolean hasPendingDeletions() {
+        return deletedDocsDirty;
+    }
+
+    /**
+     * Stops pending deletions from being committed.  They are still seen
+     * by this reader.
+     */
+    final synchronized void clearPendingDeletions() {
+        deletedDocsDirty = false;
+    }
+
+    /**
+     * Writes pending deletions to the file of a new deletions generation.
+     * <code>current</code> is this segment's info as last committed.
+     * Deletions another reader has committed since are kept.  Returns the
+     * name of the superseded file, or null.
+     */
+    final synchronized String writeDeletions(SegmentInfo current)
+            throws IOException {
+        deletedDocsDirty = false;
+
+        SegmentInfo si = segmentInfo;
+        if (current.delGen > si.delGen) {          // committed by another reader
+            si.delGen = current.delGen;
+            BitVector other = new BitVector(directory, si.delFileName());
+            for (int i = 0; i < maxDoc(); i++)
+                if (other.get(i))
+                    deletedDocs.set(i);
+        }
+        String obsolete = si.hasDeletions() ? si.delFileName() : null;
+
+        si.advanceDelGen();
+        deletedDocs.write(directory, si.delFileName());
+        si.delCount = deletedDocs.count();
+
+        current.delGen = si.delGen;
+        current.delCount = si.delCount;
+        return obsolete;
     }
 
     public final synchronized void delete(int docNum) {
-        if (deletedDocs == null)
+        if (deletedDocs == null) {
             deletedDocs = new BitVector(maxDoc());
+        } else if (deletedDocsShared) {
+            deletedDocs = (BitVector) deletedDocs.clone();
+            deletedDocsShared = false;
+        }
         deletedDocsDirty = true;
         deletedDocs.set(docNum);
     }
 
     final Vector files() throws IOException {
         Vector files = new Vector(16);
+        if (cfsReader != null)
+            files.addElement(segment + ".cfs");
+        else
+            segmentFiles(segment, fieldInfos, files);
+
+        if (segmentInfo.hasDeletions())
+            files.addElement(segmentInfo.delFileName());
+
+        return files;
+    }
+
+    /**
+     * Adds the names of the files written for a segment's content to
+     * <code>files</code>.
+     */
+    static final void segmentFiles(String segment, FieldInfos fieldInfos,
+                                   Vector files) {
         files.addElement(segment + ".fnm");
         files.addElement(segment + ".fdx");
         files.addElement(segment + ".fdt");
@@ -87,15 +270,11 @@ final class SegmentReader extends IndexReader {
         files.addElement(segment + ".frq");
         files.addElement(segment + ".prx");
 
-        if (directory.fileExists(segment + ".del"))
-            files.addElement(segment + ".del");
-
         for (int i = 0; i < fieldInfos.size(); i++) {
             FieldInfo fi = fieldInfos.fieldInfo(i);
-            if (fi.isIndexed)
+            if (fi.isIndexed && !fi.omitNorms)
                 files.addElement(segment + ".f" + i);
         }
-        return files;
     }
 
     public final TermEnum terms() throws IOException {
@@ -106,11 +285,13 @@ final class SegmentReader extends IndexReader {
         return tis.terms(t);
     }
 
-    public final synchronized Document document(int n) throws IOException {
+    public final Document document(int n) throws IOException {
         if (isDeleted(n))
             throw new IllegalArgumentException
                     ("attempt to access a deleted document");
-        return fieldsReader.doc(n);
+        synchronized (fieldsReader) {          // may be shared
+            return fieldsReader.doc(n);
+        }
     }
 
     public final synchronized boolean isDeleted(int n) {
@@ -120,53 +301,40 @@ final class SegmentReader extends IndexReader {
     public final TermDocs termDocs(Term t) throws IOException {
         TermInfo ti = tis.get(t);
         if (ti != null)
-            return new SegmentTermDocs(this, ti);
+            return new SegmentTermDocs(this, fieldInfos.fieldInfo(t.field), ti);
         else
             return null;
     }
 
-    synchronized final InputStream openFreqStream() throws IOException {
-        InputStream fs;
-        if (freqStream != null) {
-            fs = freqStream;
-            freqStream = null;
-        } else
-            fs = directory.openFile(segment + ".frq");
-        return fs;
+    /* The shared streams are never read or moved, so they may be cloned
+       without synchronization. */
+
+    final InputStream openFreqStream() {
+        return (InputStream) freqStream.clone();
     }
 
-    synchronized final void closeFreqStream(InputStream fs)
-            throws IOException {
-        if (freqStream == null)
-            freqStream = fs;
-        else
-            fs.close();
+    final void closeFreqStream(InputStream fs) throws IOException {
+        fs.close();
     }
 
     public final TermPositions termPositions(Term t) throws IOException {
         TermInfo ti = tis.get(t);
         if (ti != null)
-            return new SegmentTermPositions(this, ti);
+            return new SegmentTermPositions(this, fieldInfos.fieldInfo(t.field), ti);
         else
             return null;
     }
 
-    synchronized final InputStream openProxStream() throws IOException {
-        InputStream ps;
-        if (proxStream != null) {
-            ps = proxStream;
-            proxStream = null;
-        } else
-            ps = directory.openFile(segment + ".prx");
-        return ps;
+    final InputStream openProxStream() {
+        return (InputStream) proxStream.clone();
     }
 
-    synchronized final void closeProxStream(InputStream ps)
-            throws IOException {
-        if (proxStream == null)
-            proxStream = ps;
-        else
-            ps.close();
+    final void closeProxStream(InputStream ps) throws IOException {
+        ps.close();
+    }
+
+    public final void setTermIndexDivisor(int divisor) {
+        tis.setIndexDivisor(divisor);
     }
 
     public final int docFreq(Term t) throws IOException {
@@ -189,6 +357,8 @@ final class SegmentReader extends IndexReader {
     }
 
     public final synchronized byte[] norms(String field) throws IOException {
+        if (omitsNorms(field))
+            return null;
         byte[] bytes = (byte[]) normsCache.get(field);
         if (bytes != null)
             return bytes;                  // cache hit
@@ -199,8 +369,24 @@ final class SegmentReader extends IndexReader {
         return bytes;
     }
 
+    /**
+     * Returns true iff the field is indexed without norms.
+     */
+    final boolean omitsNorms(String field) {
+        FieldInfo fi = fieldInfos.fieldInfo(field);
+        return fi != null && fi.omitNorms;
+    }
+
+    /* A field without norms is given the norm of a one-term field, which
+       leaves scores unchanged. */
     final void norms(String field, byte[] bytes, int offset)
             throws IOException {
+        if (omitsNorms(field)) {
+            byte one = Similarity.norm(1);
+            for (int i = offset; i < offset + maxDoc(); i++)
+                bytes[i] = one;
+            return;
+        }
         InputStream normStream = normStream(field);      // try to open file
         if (normStream == null)              // none for this field
             return;                      // use zeros
@@ -213,8 +399,9 @@ final class SegmentReader extends IndexReader {
 
     final InputStream normStream(String fieldName) throws IOException {
         FieldInfo fi = fieldInfos.fieldInfo(fieldName);
-        if (fi != null && fi.isIndexed)
-            return directory.openFile(segment + ".f" + fi.number);
+        if (fi != null && fi.isIndexed && !fi.omitNorms)
+            return (cfsReader != null ? cfsReader : directory)
+                    .openFile(segment + ".f" + fi.number);
         else
             return null;
     }
@@ -26,30 +26,60 @@ import com.lucene.store.InputStream;
 class SegmentTermDocs implements TermDocs {
     protected SegmentReader parent;
     private InputStream freqStream;
-    private int freqCount;
+    private int freqCount;                  // not yet decoded
     private BitVector deletedDocs;
     int doc = 0;
     int freq;
 
+    private boolean blocked;                  // full blocks are packed
+    private boolean omitFreqs;                  // each freq is one
+    private int[] docBuffer;                  // a decoded block
+    private int[] freqBuffer;
+    private byte[] packed;
+    private int bufferUpto = 0;
+    private int bufferCount = 0;
+
     SegmentTermDocs() {
     }
 
-    SegmentTermDocs(SegmentReader p, TermInfo ti)
+    SegmentTermDocs(SegmentReader p, FieldInfo fi, TermInfo ti)
             throws IOException {
-        open(p, ti);
+        open(p, fi, ti);
     }
 
-    void open(SegmentReader p, TermInfo ti) throws IOException {
+    private TermInfo termInfo = new TermInfo();
+    private SkipListReader skipReader = null;      // made on first skip
+    private boolean haveSkipped;
+
+    void open(SegmentReader p, FieldInfo fi, TermInfo ti) throws IOException {
+        if (skipReader != null && p != parent) {
+            skipReader.close();
+            skipReader = null;
+        }
         parent = p;
         freqStream = parent.openFreqStream();
         freqCount = ti.docFreq;
         doc = 0;
         freqStream.seek(ti.freqPointer);
         deletedDocs = parent.deletedDocs;
+        termInfo.set(ti);
+        haveSkipped = false;
+        bufferUpto = bufferCount = 0;
+        blocked = parent.tis.blockedPostings();
+        omitFreqs = fi.omitFreqs;
+        if (blocked && docBuffer == null && ti.docFreq >= BlockPostings.BLOCK_SIZE) {
+            docBuffer = new int[BlockPostings.BLOCK_SIZE];
+            freqBuffer = new int[BlockPostings.BLOCK_SIZE];
+            packed = new byte[BlockPostings.BLOCK_SIZE * 4];
+        }
     }
 
     public void close() throws IOException {
         parent.closeFreqStream(freqStream);
+        if (skipReader != null) {
+            skipReader.close();
+            skipReader = null;
+        }
     }
 
     public final int doc() {
@@ -63,19 +93,36 @@ class SegmentTermDocs implements TermDocs {
     protected void skippingDoc() throws IOException {
     }
 
+    /* Moves the positions, if any, to a skip entry's pointer. */
+    protected void skipProx(long proxPointer) throws IOException {
+    }
+
     public boolean next() throws IOException {
         while (true) {
-            if (freqCount == 0)
+            if (bufferUpto < bufferCount) {          // in a decoded block
+                doc = docBuffer[bufferUpto];
+                freq = freqBuffer[bufferUpto++];
+            } else if (freqCount == 0) {
                 return false;
-
-            int docCode = freqStream.readVInt();
-            doc += docCode >>> 1;              // shift off low bit
-            if ((docCode & 1) != 0)              // if low bit is set
-                freq = 1;                  // freq is one
-            else
-                freq = freqStream.readVInt();          // else read freq
-
-            freqCount--;
+            } else if (blocked && freqCount >= BlockPostings.BLOCK_SIZE) {
+                readBlock(docBuffer, freqBuffer, 0);
+                bufferUpto = 0;
+                bufferCount = BlockPostings.BLOCK_SIZE;
+                continue;
+            } else if (omitFreqs) {
+                doc += freqStream.readVInt();
+                freq = 1;
+                freqCount--;
+            } else {
+                int docCode = freqStream.readVInt();
+                doc += docCode >>> 1;              // shift off low bit
+                if ((docCode & 1) != 0)              // if low bit is set
+                    freq = 1;                  // freq is one
+                else
+                    freq = freqStream.readVInt();          // else read freq
+
+                freqCount--;
+            }
 
             if (deletedDocs == null || !deletedDocs.get(doc))
                 break;
@@ -84,37 +131,102 @@ class SegmentTermDocs implements TermDocs {
         return true;
     }
 
+    /* Decodes the next block, following doc, into the arrays at offset. */
+    private final void readBlock(int[] docs, int[] freqs, int offset)
+            throws IOException {
+        BlockPostings.readBlock(freqStream, docs, offset, packed);
+        if (!omitFreqs)
+            BlockPostings.readBlock(freqStream, freqs, offset, packed);
+        int d = doc;
+        for (int i = offset; i < offset + BlockPostings.BLOCK_SIZE; i++) {
+            d += docs[i];
+            docs[i] = d;
+            freqs[i] = omitFreqs ? 1 : freqs[i] + 1;
+        }
+        freqCount -= BlockPostings.BLOCK_SIZE;
+    }
+
     /**
-     * Optimized implementation.
+     * Optimized implementation.  Full blocks are decoded straight into the
+     * arrays when there are no deletions and they have room.
      */
     public int read(final int[] docs, final int[] freqs)
             throws IOException {
         final int end = docs.length;
         int i = 0;
-        while (i < end && freqCount > 0) {
-
-            // manually inlined call to next() for speed
-            final int docCode = freqStream.readVInt();
-            doc += docCode >>> 1;              // shift off low bit
-            if ((docCode & 1) != 0)              // if low bit is set
-                freq = 1;                  // freq is one
-            else
-                freq = freqStream.readVInt();          // else read freq
-            freqCount--;
-
-            if (deletedDocs == null || !deletedDocs.get(doc)) {
-                docs[i] = doc;
-                freqs[i] = freq;
-                ++i;
+        while (i < end) {
+            if (bufferUpto < bufferCount) {          // copy the decoded block
+                while (i < end && bufferUpto < bufferCount) {
+                    doc = docBuffer[bufferUpto];
+                    freq = freqBuffer[bufferUpto++];
+                    if (deletedDocs == null || !deletedDocs.get(doc)) {
+                        docs[i] = doc;
+                        freqs[i] = freq;
+                        ++i;
+                    }
+                }
+            } else if (freqCount == 0) {
+                break;
+            } else if (blocked && freqCount >= BlockPostings.BLOCK_SIZE) {
+                if (deletedDocs == null && end - i >= BlockPostings.BLOCK_SIZE) {
+                    readBlock(docs, freqs, i);
+                    i += BlockPostings.BLOCK_SIZE;
+                    doc = docs[i - 1];
+                    freq = freqs[i - 1];
+                } else {
+                    readBlock(docBuffer, freqBuffer, 0);
+                    bufferUpto = 0;
+                    bufferCount = BlockPostings.BLOCK_SIZE;
+                }
+            } else {
+                // manually inlined call to next() for speed
+                if (omitFreqs) {
+                    doc += freqStream.readVInt();
+                    freq = 1;
+                } else {
+                    final int docCode = freqStream.readVInt();
+                    doc += docCode >>> 1;              // shift off low bit
+                    if ((docCode & 1) != 0)              // if low bit is set
+                        freq = 1;                  // freq is one
+                    else
+                        freq = freqStream.readVInt();          // else read freq
+                }
+                freqCount--;
+
+                if (deletedDocs == null || !deletedDocs.get(doc)) {
+                    docs[i] = doc;
+                    freqs[i] = freq;
+                    ++i;
+                }
             }
         }
         return i;
     }
 
     /**
-     * As yet unoptimized implementation.
+     * Optimized implementation: the skip data of the term, if any, is used
+     * to pass runs of documents before the target without reading them.
      */
     public boolean skipTo(int target) throws IOException {
+        if (termInfo.skipOffset > 0) {
+            if (skipReader == null)
+                skipReader = new SkipListReader(parent,
+                        parent.tis.skipInterval(), parent.tis.maxSkipLevels());
+            if (!haveSkipped) {              // start lazily
+                skipReader.init(termInfo);
+                haveSkipped = true;
+            }
+            int count = skipReader.skipTo(target);
+            int position = termInfo.docFreq - freqCount - (bufferCount - bufferUpto);
+            if (count > position) {              // past our position
+                freqStream.seek(skipReader.freqPointer());
+                skipProx(skipReader.proxPointer());
+                doc = skipReader.doc();
+                freqCount = termInfo.docFreq - count;
+                bufferUpto = bufferCount = 0;
+            }
+        }
+
         do {
             if (!next())
                 return false;
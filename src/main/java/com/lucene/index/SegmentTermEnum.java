@@ -8,6 +8,9 @@ final class SegmentTermEnum extends TermEnum {
     private InputStream input;
     private FieldInfos fieldInfos;
     int size;
+    int format = 0;
+    int skipInterval = 0;              // zero if postings have no skip data
+    int maxSkipLevels = 0;
     int position = -1;
 
     private Term term = new Term("", "");
@@ -23,7 +26,17 @@ final class SegmentTermEnum extends TermEnum {
             throws IOException {
         input = i;
         fieldInfos = fis;
-        size = input.readInt();
+        int first = input.readInt();
+        if (first < 0) {                  // file has a format version
+            format = first;
+            if (format < TermInfosWriter.FORMAT)
+                throw new IOException("unknown term infos format: " + format);
+            size = input.readInt();
+            skipInterval = input.readInt();
+            maxSkipLevels = input.readInt();
+        } else {
+            size = first;                  // original format: no skip data
+        }
         isIndex = isi;
     }
 
@@ -52,6 +65,10 @@ final class SegmentTermEnum extends TermEnum {
         termInfo.docFreq = input.readVInt();      // read doc freq
         termInfo.freqPointer += input.readVLong();      // read freq pointer
         termInfo.proxPointer += input.readVLong();      // read prox pointer
+        if (skipInterval > 0 && termInfo.docFreq > skipInterval)
+            termInfo.skipOffset = input.readVInt();  // read skip data offset
+        else
+            termInfo.skipOffset = 0;
 
         if (isIndex)
             indexPointer += input.readVLong();      // read index pointer
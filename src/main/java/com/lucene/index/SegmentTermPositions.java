@@ -8,17 +8,23 @@ final class SegmentTermPositions
         extends SegmentTermDocs implements TermPositions {
     private InputStream proxStream;
     private int proxCount = 0;
+    private boolean omitPositions;
+    private String fieldName;
 
     SegmentTermPositions() {
     }
 
-    SegmentTermPositions(SegmentReader p, TermInfo ti)
+    SegmentTermPositions(SegmentReader p, FieldInfo fi, TermInfo ti)
             throws IOException {
-        open(p, ti);
+        open(p, fi, ti);
     }
 
-    public final void open(SegmentReader p, TermInfo ti) throws IOException {
-        super.open(p, ti);
+    public final void open(SegmentReader p, FieldInfo fi, TermInfo ti)
+            throws IOException {
+        super.open(p, fi, ti);
+        omitPositions = fi.omitPositions;
+        fieldName = fi.name;
+        proxCount = 0;
         proxStream = parent.openProxStream();
         proxStream.seek(ti.proxPointer);
     }
@@ -29,11 +35,23 @@ final class SegmentTermPositions
     }
 
     public final int nextPosition() throws IOException {
+        if (omitPositions)
+            throw new IllegalStateException("field " + fieldName +
+                    " was indexed without positions");
         proxCount--;
         return proxStream.readVInt();
     }
 
+    protected final void skipProx(long proxPointer) throws IOException {
+        if (omitPositions)
+            return;
+        proxStream.seek(proxPointer);
+        proxCount = 0;
+    }
+
     protected final void skippingDoc() throws IOException {
+        if (omitPositions)
+            return;
         for (int f = freq; f > 0; f--)          // skip all positions
             proxStream.readVInt();
     }
@@ -43,7 +61,8 @@ final class SegmentTermPositions
             proxStream.readVInt();
 
         if (super.next()) {                  // run super
-            proxCount = freq;                  // note frequency
+            if (!omitPositions)
+                proxCount = freq;              // note frequency
             return true;
         }
         return false;
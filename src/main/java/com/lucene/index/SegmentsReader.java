@@ -25,13 +25,15 @@ import com.lucene.store.Directory;
 import com.lucene.document.Document;
 
 final class SegmentsReader extends IndexReader {
+    private Directory directory;
     protected SegmentReader[] readers;
     protected int[] starts;              // 1st docno for each segment
     private Hashtable normsCache = new Hashtable();
     private int maxDoc = 0;
     private int numDocs = -1;
 
-    SegmentsReader(SegmentReader[] r) {
+    SegmentsReader(Directory d, SegmentReader[] r) {
+        directory = d;
         readers = r;
         starts = new int[readers.length + 1];      // build starts array
         for (int i = 0; i < readers.length; i++) {
@@ -93,6 +95,13 @@ final class SegmentsReader extends IndexReader {
         if (bytes != null)
             return bytes;                  // cache hit
 
+        int omitting = 0;
+        for (int i = 0; i < readers.length; i++)
+            if (readers[i].omitsNorms(field))
+                omitting++;
+        if (readers.length > 0 && omitting == readers.length)
+            return null;                  // no segment has norms
+
         bytes = new byte[maxDoc()];
         for (int i = 0; i < readers.length; i++)
             readers[i].norms(field, bytes, starts[i]);
@@ -108,6 +117,11 @@ final class SegmentsReader extends IndexReader {
         return new SegmentsTermEnum(readers, starts, term);
     }
 
+    public final void setTermIndexDivisor(int divisor) {
+        for (int i = 0; i < readers.length; i++)
+            readers[i].setTermIndexDivisor(divisor);
+    }
+
     public final int docFreq(Term t) throws IOException {
         int total = 0;                  // sum freqs in segments
         for (int i = 0; i < readers.length; i++)
@@ -123,9 +137,18 @@ final class SegmentsReader extends IndexReader {
         return new SegmentsTermPositions(readers, starts, term);
     }
 
+    public final IndexReader reopen() throws IOException {
+        IndexReader reader = reopen(directory, readers);
+        return reader == null ? this : reader;
+    }
+
     public final void close() throws IOException {
-        for (int i = 0; i < readers.length; i++)
-            readers[i].close();
+        try {
+            SegmentInfos.commitDeletions(readers);      // one commit for all
+        } finally {
+            for (int i = 0; i < readers.length; i++)
+                readers[i].close();
+        }
     }
 }
 
@@ -155,14 +178,14 @@ class SegmentsTermEnum extends TermEnum {
         }
 
         if (t != null && queue.size() > 0) {
-            SegmentMergeInfo top = (SegmentMergeInfo) queue.top();
+            SegmentMergeInfo top = queue.top();
             term = top.termEnum.term();
             docFreq = top.termEnum.docFreq();
         }
     }
 
     public final boolean next() throws IOException {
-        SegmentMergeInfo top = (SegmentMergeInfo) queue.top();
+        SegmentMergeInfo top = queue.top();
         if (top == null) {
             term = null;
             return false;
@@ -171,14 +194,14 @@ class SegmentsTermEnum extends TermEnum {
         term = top.term;
         docFreq = 0;
 
-        while (top != null && term.compareTo(top.term) == 0) {
+        while (top != null && term.equals(top.term)) {
             queue.pop();
             docFreq += top.termEnum.docFreq();      // increment freq
             if (top.next())
                 queue.put(top);                  // restore queue
             else
                 top.close();                  // done with a segment
-            top = (SegmentMergeInfo) queue.top();
+            top = queue.top();
         }
         return true;
     }
@@ -261,14 +284,20 @@ class SegmentsTermDocs implements TermDocs {
     }
 
     /**
-     * As yet unoptimized implementation.
+     * Optimized implementation: skips within each segment.
      */
     public boolean skipTo(int target) throws IOException {
-        do {
-            if (!next())
+        while (true) {
+            if (current != null && current.skipTo(target - base)) {
+                return true;
+            } else if (pointer < readers.length) {
+                if (current != null)
+                    current.close();
+                base = starts[pointer];
+                current = termDocs(readers[pointer++]);
+            } else
                 return false;
-        } while (target > doc());
-        return true;
+        }
     }
 
     protected SegmentTermDocs termDocs(SegmentReader reader)
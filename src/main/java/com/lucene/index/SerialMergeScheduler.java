@@ -0,0 +1,21 @@
+package com.lucene.index;
+
+import java.io.IOException;
+
+/**
+ * Runs merges one at a time, in the thread that selected them.  The thread
+ * adding the document that completes a set of segments thus waits until the
+ * whole cascade of merges it causes is done.
+ */
+
+public class SerialMergeScheduler extends MergeScheduler {
+    public synchronized void merge(IndexWriter writer) throws IOException {
+        for (OneMerge merge = writer.getNextMerge();
+             merge != null;
+             merge = writer.getNextMerge())
+            writer.merge(merge);
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,161 @@
+package com.lucene.index;
+
+import java.io.IOException;
+
+import com.lucene.store.InputStream;
+
+/* Reads the skip data written by SkipListWriter for a SegmentTermDocs.
+   Each level is read through a stream of its own, and holds its next
+   entry, so that skipTo can tell whether the entry may be passed. */
+final class SkipListReader {
+    private SegmentReader parent;
+    private int interval;
+    private int maxLevels;
+
+    private InputStream[] streams;
+    private long[] starts;                  // of each level's data
+    private int numLevels;
+    private int docFreq;
+
+    // the next entry of each level
+    private int[] docs;
+    private long[] freqPointers;
+    private long[] proxPointers;
+    private long[] childPointers;
+    private int[] counts;                  // documents before its pointers
+    private long[] spans;                  // documents between entries
+
+    // the last entry passed
+    private int lastDoc;
+    private long lastFreqPointer;
+    private long lastProxPointer;
+    private long lastChildPointer;
+    private int lastCount;
+
+    SkipListReader(SegmentReader parent, int interval, int maxLevels) {
+        this.parent = parent;
+        this.interval = interval;
+        this.maxLevels = maxLevels;
+        streams = new InputStream[maxLevels];
+        starts = new long[maxLevels];
+        docs = new int[maxLevels];
+        freqPointers = new long[maxLevels];
+        proxPointers = new long[maxLevels];
+        childPointers = new long[maxLevels];
+        counts = new int[maxLevels];
+        spans = new long[maxLevels];
+        long span = interval;
+        for (int i = 0; i < maxLevels; i++, span *= interval)
+            spans[i] = span;
+    }
+
+    /**
+     * Positions this at the start of a term's skip data.
+     */
+    final void init(TermInfo ti) throws IOException {
+        docFreq = ti.docFreq;
+        numLevels = SkipListWriter.numLevels(docFreq, interval, maxLevels);
+
+        InputStream top = stream(0);
+        top.seek(ti.freqPointer + ti.skipOffset);
+        for (int level = numLevels - 1; level > 0; level--) {
+            long length = top.readVLong();
+            starts[level] = top.getFilePointer();
+            top.seek(starts[level] + length);
+        }
+        starts[0] = top.getFilePointer();
+
+        for (int level = 0; level < numLevels; level++) {
+            stream(level).seek(starts[level]);
+            docs[level] = 0;
+            freqPointers[level] = ti.freqPointer;
+            proxPointers[level] = ti.proxPointer;
+            counts[level] = 0;
+            readEntry(level);
+        }
+        lastDoc = 0;
+        lastFreqPointer = ti.freqPointer;
+        lastProxPointer = ti.proxPointer;
+        lastCount = 0;
+    }
+
+    private final InputStream stream(int level) {
+        if (streams[level] == null)
+            streams[level] = parent.openFreqStream();
+        return streams[level];
+    }
+
+    /**
+     * Passes the entries before the first whose document is at least
+     * <code>target</code>.  Returns the number of documents before the
+     * pointers of the last entry passed.
+     */
+    final int skipTo(int target) throws IOException {
+        int level = 0;                      // climb while entries may be passed
+        while (level < numLevels - 1 && docs[level + 1] < target)
+            level++;
+
+        while (level >= 0) {
+            if (docs[level] < target) {          // pass it
+                lastDoc = docs[level];
+                lastFreqPointer = freqPointers[level];
+                lastProxPointer = proxPointers[level];
+                lastChildPointer = childPointers[level];
+                lastCount = counts[level];
+                readEntry(level);
+            } else {                      // descend
+                if (level > 0 && counts[level - 1] < lastCount)
+                    seekChild(level - 1);
+                level--;
+            }
+        }
+        return lastCount;
+    }
+
+    /* Reads the next entry of a level, if there is one. */
+    private final void readEntry(int level) throws IOException {
+        if (counts[level] + spans[level] >= docFreq) {
+            docs[level] = Integer.MAX_VALUE;      // level is exhausted
+            counts[level] = Integer.MAX_VALUE;
+            return;
+        }
+        InputStream stream = streams[level];
+        docs[level] += stream.readVInt();
+        freqPointers[level] += stream.readVLong();
+        proxPointers[level] += stream.readVLong();
+        counts[level] += (int) spans[level];
+        if (level > 0)
+            childPointers[level] = starts[level - 1] + stream.readVLong();
+    }
+
+    /* Moves a level to the entry below the last passed, which is then
+       passed again, reading its own child pointer. */
+    private final void seekChild(int level) throws IOException {
+        InputStream stream = stream(level);
+        stream.seek(lastChildPointer);
+        docs[level] = lastDoc;
+        freqPointers[level] = lastFreqPointer;
+        proxPointers[level] = lastProxPointer;
+        counts[level] = lastCount;
+        if (level > 0)
+            childPointers[level] = starts[level - 1] + stream.readVLong();
+    }
+
+    final int doc() {
+        return lastDoc;
+    }
+
+    final long freqPointer() {
+        return lastFreqPointer;
+    }
+
+    final long proxPointer() {
+        return lastProxPointer;
+    }
+
+    final void close() throws IOException {
+        for (int i = 0; i < streams.length; i++)
+            if (streams[i] != null)
+                parent.closeFreqStream(streams[i]);
+    }
+}
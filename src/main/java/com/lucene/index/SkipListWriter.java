@@ -0,0 +1,128 @@
+package com.lucene.index;
+
+import java.io.IOException;
+
+import com.lucene.store.OutputStream;
+
+/* Writes the skip data of a term's postings, which lets TermDocs.skipTo
+   jump over runs of documents instead of decoding each.  After every
+   SKIP_INTERVAL documents there is an entry at level zero holding the last
+   document number and the .frq and .prx pointers of the next document;
+   after every SKIP_INTERVAL entries of a level there is an entry at the
+   level above, which also points to the entry following its last in the
+   level below.  A reader descends from the top level, so that reaching a
+   document costs a few entries per level.
+
+   The data follows the term's postings in .frq: each level from the top
+   down to level one, preceded by its length, then level zero.  Entries are
+   delta-encoded from the previous of their level.  Terms in no more than
+   SKIP_INTERVAL documents have none.  Entries fall at the boundaries of
+   the blocks of BlockPostings, where their .frq pointers lead. */
+final class SkipListWriter {
+    static final int SKIP_INTERVAL = BlockPostings.BLOCK_SIZE;
+    static final int MAX_LEVELS = 10;
+
+    private byte[][] levels = new byte[MAX_LEVELS][];
+    private int[] lengths = new int[MAX_LEVELS];
+    private int[] lastDocs = new int[MAX_LEVELS];
+    private long[] lastFreqPointers = new long[MAX_LEVELS];
+    private long[] lastProxPointers = new long[MAX_LEVELS];
+    private int numDocs;
+
+    /**
+     * Returns the number of levels of skip data for a term in
+     * <code>docFreq</code> documents.
+     */
+    static final int numLevels(int docFreq, int interval, int maxLevels) {
+        int n = 0;
+        for (long span = interval; span < docFreq && n < maxLevels; span *= interval)
+            n++;
+        return n;
+    }
+
+    /**
+     * Starts the skip data of a term whose postings begin at the given
+     * pointers.
+     */
+    final void reset(long freqPointer, long proxPointer) {
+        for (int i = 0; i < MAX_LEVELS; i++) {
+            lengths[i] = 0;
+            lastDocs[i] = 0;
+            lastFreqPointers[i] = freqPointer;
+            lastProxPointers[i] = proxPointer;
+        }
+        numDocs = 0;
+    }
+
+    /**
+     * Called before each document of the term is written, with the number
+     * of the last document written and the pointers the next is written at.
+     */
+    final void addDoc(int lastDoc, long freqPointer, long proxPointer) {
+        if (numDocs > 0 && numDocs % SKIP_INTERVAL == 0)
+            bufferSkip(lastDoc, freqPointer, proxPointer);
+        numDocs++;
+    }
+
+    private final void bufferSkip(int doc, long freqPointer, long proxPointer) {
+        int childPointer = 0;
+        for (int level = 0, n = numDocs;
+             level < MAX_LEVELS && n % SKIP_INTERVAL == 0;
+             level++, n /= SKIP_INTERVAL) {
+            writeVInt(level, doc - lastDocs[level]);
+            writeVLong(level, freqPointer - lastFreqPointers[level]);
+            writeVLong(level, proxPointer - lastProxPointers[level]);
+            int newChildPointer = lengths[level];      // before its own child's
+            if (level > 0)
+                writeVLong(level, childPointer);
+            childPointer = newChildPointer;
+
+            lastDocs[level] = doc;
+            lastFreqPointers[level] = freqPointer;
+            lastProxPointers[level] = proxPointer;
+        }
+    }
+
+    /**
+     * Writes the buffered skip data, if any, and returns its pointer.
+     */
+    final long write(OutputStream output) throws IOException {
+        long pointer = output.getFilePointer();
+        for (int level = MAX_LEVELS - 1; level > 0; level--) {
+            if (lengths[level] > 0) {
+                output.writeVLong(lengths[level]);
+                output.writeBytes(levels[level], lengths[level]);
+            }
+        }
+        if (lengths[0] > 0)
+            output.writeBytes(levels[0], lengths[0]);
+        return pointer;
+    }
+
+    private final void writeVInt(int level, int i) {
+        while ((i & ~0x7F) != 0) {
+            writeByte(level, (byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        writeByte(level, (byte) i);
+    }
+
+    private final void writeVLong(int level, long i) {
+        while ((i & ~0x7F) != 0) {
+            writeByte(level, (byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        writeByte(level, (byte) i);
+    }
+
+    private final void writeByte(int level, byte b) {
+        byte[] bytes = levels[level];
+        if (bytes == null || lengths[level] == bytes.length) {
+            byte[] newBytes = new byte[bytes == null ? 64 : bytes.length * 2];
+            if (bytes != null)
+                System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+            levels[level] = bytes = newBytes;
+        }
+        bytes[lengths[level]++] = b;
+    }
+}
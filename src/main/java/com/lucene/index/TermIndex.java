@@ -0,0 +1,256 @@
+package com.lucene.index;
+
+import java.io.IOException;
+
+/* The terms index of a segment held in memory as one packed array of bytes,
+   rather than as a Term, a String and a TermInfo per entry.  Entries are
+   written in order as VInts and VLongs: the field number, the length of the
+   text shared with the previous entry, the rest of the text, then the
+   TermInfo and the .tis pointer, delta-encoded from the previous entry's.
+   Every RESTART_INTERVAL entries one is written whole, so that a lookup
+   binary searches those and then scans at most RESTART_INTERVAL entries.
+
+   Only every divisor'th entry of the .tii file is kept, so that memory may
+   be traded for longer scans of the .tis file. */
+final class TermIndex {
+    private static final int RESTART_INTERVAL = 16;
+
+    private FieldInfos fieldInfos;
+    private byte[] bytes = new byte[1024];
+    private int length = 0;
+    private int[] restarts = new int[16];      // offsets of whole entries
+    private int size = 0;
+
+    TermIndex(SegmentTermEnum indexEnum, FieldInfos fis, int divisor)
+            throws IOException {
+        fieldInfos = fis;
+        Term last = null;
+        TermInfo ti = new TermInfo();
+        TermInfo lastTi = new TermInfo();
+        long lastPointer = 0;
+        for (int i = 0; indexEnum.next(); i++) {
+            if (i % divisor != 0)
+                continue;
+            Term term = indexEnum.term();
+            indexEnum.termInfo(ti);
+            long pointer = indexEnum.indexPointer;
+
+            int shared = 0;
+            if (size % RESTART_INTERVAL == 0) {          // a whole entry
+                if (size / RESTART_INTERVAL == restarts.length) {
+                    int[] newRestarts = new int[restarts.length * 2];
+                    System.arraycopy(restarts, 0, newRestarts, 0, restarts.length);
+                    restarts = newRestarts;
+                }
+                restarts[size / RESTART_INTERVAL] = length;
+                lastTi.set(0, 0, 0);
+                lastPointer = 0;
+            } else if (last.field == term.field) {
+                int end = Math.min(last.text.length(), term.text.length());
+                while (shared < end && last.text.charAt(shared) == term.text.charAt(shared))
+                    shared++;
+            }
+
+            writeVInt(fieldInfos.fieldNumber(term.field));
+            writeVInt(shared);
+            writeVInt(term.text.length() - shared);
+            for (int j = shared; j < term.text.length(); j++)
+                writeVInt(term.text.charAt(j));
+            writeVInt(ti.docFreq);
+            writeVLong(ti.freqPointer - lastTi.freqPointer);
+            writeVLong(ti.proxPointer - lastTi.proxPointer);
+            writeVInt(ti.skipOffset);
+            writeVLong(pointer - lastPointer);
+
+            last = term;
+            TermInfo swap = lastTi;
+            lastTi = ti;
+            ti = swap;
+            lastPointer = pointer;
+            size++;
+        }
+
+        byte[] trimmed = new byte[length];          // drop the slack
+        System.arraycopy(bytes, 0, trimmed, 0, length);
+        bytes = trimmed;
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    final int size() {
+        return size;
+    }
+
+    // The entry last decoded.  Callers are synchronized by TermInfosReader.
+    private int upto;                          // offset of the next entry
+    private int number = -1;                  // of the entry decoded
+    private int field;
+    private char[] text = new char[16];
+    private int textLength;
+    private TermInfo termInfo = new TermInfo();
+    private long pointer;
+
+    /* Decodes the entries from the last whole entry up to n. */
+    private final void decode(int n) {
+        int start = n - n % RESTART_INTERVAL;
+        if (number > n || number < start) {          // start at the whole entry
+            upto = restarts[n / RESTART_INTERVAL];
+            number = start - 1;
+        }
+        while (number < n)
+            next();
+    }
+
+    private final void next() {
+        if (++number % RESTART_INTERVAL == 0) {
+            termInfo.set(0, 0, 0);
+            pointer = 0;
+        }
+        field = readVInt();
+        int shared = readVInt();
+        textLength = shared + readVInt();
+        if (textLength > text.length) {
+            char[] newText = new char[Math.max(textLength, text.length * 2)];
+            System.arraycopy(text, 0, newText, 0, shared);
+            text = newText;
+        }
+        for (int i = shared; i < textLength; i++)
+            text[i] = (char) readVInt();
+        termInfo.docFreq = readVInt();
+        termInfo.freqPointer += readVLong();
+        termInfo.proxPointer += readVLong();
+        termInfo.skipOffset = readVInt();
+        pointer += readVLong();
+    }
+
+    /* Compares the decoded entry's term with a term. */
+    private final int compareTo(Term term) {
+        String fieldName = fieldInfos.fieldName(field);
+        if (fieldName != term.field) {          // field names are interned
+            int delta = fieldName.compareTo(term.field);
+            if (delta != 0)
+                return delta;
+        }
+        String other = term.text;
+        int end = Math.min(textLength, other.length());
+        for (int i = 0; i < end; i++) {
+            int delta = text[i] - other.charAt(i);
+            if (delta != 0)
+                return delta;
+        }
+        return textLength - other.length();
+    }
+
+    /**
+     * Returns the number of the greatest entry which is not greater than
+     * <code>term</code>, or -1 if all are greater.
+     */
+    final int find(Term term) {
+        if (size == 0)
+            return -1;
+        int lo = 0;                      // binary search whole entries
+        int hi = (size - 1) / RESTART_INTERVAL;
+        while (hi >= lo) {
+            int mid = (lo + hi) >> 1;
+            decode(mid * RESTART_INTERVAL);
+            int delta = compareTo(term);
+            if (delta < 0)
+                lo = mid + 1;
+            else if (delta > 0)
+                hi = mid - 1;
+            else
+                return mid * RESTART_INTERVAL;
+        }
+        if (hi < 0)
+            return -1;
+
+        int n = hi * RESTART_INTERVAL;          // then scan those after
+        int end = Math.min(size, n + RESTART_INTERVAL);
+        decode(n);
+        while (number + 1 < end) {
+            next();
+            if (compareTo(term) > 0)
+                return number - 1;
+        }
+        return number;
+    }
+
+    /**
+     * Compares the term of an entry with a term.
+     */
+    final int compareTo(int n, Term term) {
+        decode(n);
+        return compareTo(term);
+    }
+
+    /**
+     * Returns the term of an entry.
+     */
+    final Term term(int n) {
+        decode(n);
+        return new Term(fieldInfos.fieldName(field),
+                new String(text, 0, textLength), false);
+    }
+
+    /**
+     * Returns the TermInfo of an entry.  It is re-used by the next call.
+     */
+    final TermInfo termInfo(int n) {
+        decode(n);
+        return termInfo;
+    }
+
+    /**
+     * Returns the .tis pointer of an entry.
+     */
+    final long pointer(int n) {
+        decode(n);
+        return pointer;
+    }
+
+    private final void writeVInt(int i) {
+        while ((i & ~0x7F) != 0) {
+            writeByte((byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        writeByte((byte) i);
+    }
+
+    private final void writeVLong(long i) {
+        while ((i & ~0x7F) != 0) {
+            writeByte((byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        writeByte((byte) i);
+    }
+
+    private final void writeByte(byte b) {
+        if (length == bytes.length) {
+            byte[] newBytes = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, newBytes, 0, length);
+            bytes = newBytes;
+        }
+        bytes[length++] = b;
+    }
+
+    private final int readVInt() {
+        byte b = bytes[upto++];
+        int i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = bytes[upto++];
+            i |= (b & 0x7F) << shift;
+        }
+        return i;
+    }
+
+    private final long readVLong() {
+        byte b = bytes[upto++];
+        long i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = bytes[upto++];
+            i |= (b & 0x7FL) << shift;
+        }
+        return i;
+    }
+}
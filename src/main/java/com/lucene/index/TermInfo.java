@@ -13,6 +13,12 @@ final class TermInfo {
     long freqPointer = 0;
     long proxPointer = 0;
 
+    /**
+     * The offset of the term's skip data from freqPointer, or zero if it
+     * has none.
+     */
+    int skipOffset = 0;
+
     TermInfo() {
     }
 
@@ -26,17 +32,20 @@ final class TermInfo {
         docFreq = ti.docFreq;
         freqPointer = ti.freqPointer;
         proxPointer = ti.proxPointer;
+        skipOffset = ti.skipOffset;
     }
 
     final void set(int df, long fp, long pp) {
         docFreq = df;
         freqPointer = fp;
         proxPointer = pp;
+        skipOffset = 0;
     }
 
     final void set(TermInfo ti) {
         docFreq = ti.docFreq;
         freqPointer = ti.freqPointer;
         proxPointer = ti.proxPointer;
+        skipOffset = ti.skipOffset;
     }
 }
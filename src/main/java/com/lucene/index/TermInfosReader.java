@@ -1,6 +1,7 @@
 package com.lucene.index;
 
 import com.lucene.store.Directory;
+import com.lucene.store.InputStream;
 
 import java.io.IOException;
 
@@ -15,6 +16,7 @@ final class TermInfosReader {
     private String segment;
     private FieldInfos fieldInfos;
 
+    private InputStream tisStream;              // cloned by each enum
     private SegmentTermEnum enums = null;
     private int size;
 
@@ -24,16 +26,48 @@ final class TermInfosReader {
         segment = seg;
         fieldInfos = fis;
 
+        tisStream = directory.openFile(segment + ".tis");
         getEnum();
         size = enums.size;
+        skipInterval = enums.skipInterval;
+        maxSkipLevels = enums.maxSkipLevels;
+        blockedPostings = enums.format <= TermInfosWriter.FORMAT_BLOCKS;
     }
 
+    private boolean blockedPostings;
+
+    /**
+     * Returns true iff the postings of a term are packed in blocks of
+     * {@link BlockPostings#BLOCK_SIZE} documents.
+     */
+    final boolean blockedPostings() {
+        return blockedPostings;
+    }
+
+    private int skipInterval;
+    private int maxSkipLevels;
+
     /**
-     * cache an open enum to avoid opening too many files during merges
+     * Returns the number of documents between skip entries at the lowest
+     * level, or zero if the postings have no skip data.
+     */
+    final int skipInterval() {
+        return skipInterval;
+    }
+
+    /**
+     * Returns the greatest number of skip levels of a term.
+     */
+    final int maxSkipLevels() {
+        return maxSkipLevels;
+    }
+
+    /**
+     * cache an open enum to avoid cloning too many streams during merges
      */
     private final SegmentTermEnum getEnum() throws IOException {
         if (enums == null)
-            enums = new SegmentTermEnum(directory.openFile(segment + ".tis"),
+            enums = new SegmentTermEnum((InputStream) tisStream.clone(),
                     fieldInfos, false);
         return enums;
     }
@@ -41,6 +75,7 @@ final class TermInfosReader {
     final void close() throws IOException {
         if (enums != null)
             enums.close();
+        tisStream.close();
     }
 
     /**
@@ -50,28 +85,36 @@ final class TermInfosReader {
         return size;
     }
 
-    Term[] indexTerms = null;
-    TermInfo[] indexInfos;
-    long[] indexPointers;
+    private TermIndex index = null;
+    private int indexDivisor = 1;
+    private int indexInterval = TermInfosWriter.INDEX_INTERVAL;
+
+    /**
+     * Sets how many entries of the terms index are passed over for each
+     * kept in memory.  Larger values use less memory but scan more of the
+     * term infos per lookup.  Must be called before the index is loaded.
+     */
+    final synchronized void setIndexDivisor(int divisor) {
+        if (divisor < 1)
+            throw new IllegalArgumentException("divisor must be at least 1");
+        if (index != null)
+            throw new IllegalStateException("terms index already loaded");
+        indexDivisor = divisor;
+        indexInterval = TermInfosWriter.INDEX_INTERVAL * divisor;
+    }
+
+    final int getIndexDivisor() {
+        return indexDivisor;
+    }
 
     private final void getIndex() throws IOException {
-        if (indexTerms != null)
+        if (index != null)
             return;
         SegmentTermEnum indexEnum =
                 new SegmentTermEnum(directory.openFile(segment + ".tii"),
                         fieldInfos, true);
         try {
-            int indexSize = indexEnum.size;
-
-            indexTerms = new Term[indexSize];
-            indexInfos = new TermInfo[indexSize];
-            indexPointers = new long[indexSize];
-
-            for (int i = 0; indexEnum.next(); i++) {
-                indexTerms[i] = indexEnum.term();
-                indexInfos[i] = indexEnum.termInfo();
-                indexPointers[i] = indexEnum.indexPointer;
-            }
+            index = new TermIndex(indexEnum, fieldInfos, indexDivisor);
         } finally {
             indexEnum.close();
         }
@@ -82,28 +125,15 @@ final class TermInfosReader {
      */
     private final int getIndexOffset(Term term) throws IOException {
         getIndex();
-        int lo = 0;                      // binary search indexTerms[]
-        int hi = indexTerms.length - 1;
-
-        while (hi >= lo) {
-            int mid = (lo + hi) >> 1;
-            int delta = term.compareTo(indexTerms[mid]);
-            if (delta < 0)
-                hi = mid - 1;
-            else if (delta > 0)
-                lo = mid + 1;
-            else
-                return mid;
-        }
-        return hi;
+        return index.find(term);
     }
 
     private final void seekEnum(int indexOffset) throws IOException {
         getIndex();
         getEnum();
-        enums.seek(indexPointers[indexOffset],
-                (indexOffset * TermInfosWriter.INDEX_INTERVAL) - 1,
-                indexTerms[indexOffset], indexInfos[indexOffset]);
+        enums.seek(index.pointer(indexOffset),
+                (indexOffset * indexInterval) - 1,
+                index.term(indexOffset), index.termInfo(indexOffset));
     }
 
     /**
@@ -116,10 +146,10 @@ final class TermInfosReader {
         if (enums != null && enums.term() != null      // term is at or past current
                 && ((enums.prev != null && term.compareTo(enums.prev) > 0)
                 || term.compareTo(enums.term()) >= 0)) {
-            int enumOffset = (enums.position / TermInfosWriter.INDEX_INTERVAL) + 1;
+            int enumOffset = (enums.position / indexInterval) + 1;
             getIndex();
-            if (indexTerms.length == enumOffset      // but before end of block
-                    || term.compareTo(indexTerms[enumOffset]) < 0)
+            if (index.size() == enumOffset      // but before end of block
+                    || index.compareTo(enumOffset, term) > 0)
                 return scanEnum(term);              // no need to seek
         }
 
@@ -147,10 +177,10 @@ final class TermInfosReader {
         if (size == 0) return null;
 
         if (enums != null && enums.term() != null && position >= enums.position &&
-                position < (enums.position + TermInfosWriter.INDEX_INTERVAL))
+                position < (enums.position + indexInterval))
             return scanEnum(position);          // can avoid seek
 
-        seekEnum(position / TermInfosWriter.INDEX_INTERVAL); // must seek
+        seekEnum(position / indexInterval); // must seek
         return scanEnum(position);
     }
 
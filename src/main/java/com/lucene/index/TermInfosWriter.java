@@ -35,6 +35,17 @@ final class TermInfosWriter {
     private TermInfo lastTi = new TermInfo();
     private int size = 0;
 
+    /**
+     * The version of the term infos format.  It is negative so that it is
+     * not mistaken for the size which begins files in the original format,
+     * which have no skip data.  Format -1 added skip data; -2 packs
+     * postings in blocks.
+     */
+    static final int FORMAT = -2;
+
+    /** The first format whose postings are packed in blocks. */
+    static final int FORMAT_BLOCKS = -2;
+
     static final int INDEX_INTERVAL = 128;
     private long lastIndexPointer = 0;
     private boolean isIndex = false;
@@ -58,7 +69,10 @@ final class TermInfosWriter {
         fieldInfos = fis;
         isIndex = isi;
         output = directory.createFile(segment + (isIndex ? ".tii" : ".tis"));
+        output.writeInt(FORMAT);              // write format version
         output.writeInt(0);                  // leave space for size
+        output.writeInt(SkipListWriter.SKIP_INTERVAL);
+        output.writeInt(SkipListWriter.MAX_LEVELS);
     }
 
     /**
@@ -82,6 +96,8 @@ final class TermInfosWriter {
         output.writeVInt(ti.docFreq);          // write doc freq
         output.writeVLong(ti.freqPointer - lastTi.freqPointer); // write pointers
         output.writeVLong(ti.proxPointer - lastTi.proxPointer);
+        if (ti.docFreq > SkipListWriter.SKIP_INTERVAL)
+            output.writeVInt(ti.skipOffset);      // write skip data offset
 
         if (isIndex) {
             output.writeVLong(other.output.getFilePointer() - lastIndexPointer);
@@ -120,7 +136,7 @@ final class TermInfosWriter {
      * Called to complete TermInfos creation.
      */
     final void close() throws IOException, SecurityException {
-        output.seek(0);                  // write size at start
+        output.seek(4);                  // write size after format
         output.writeInt(size);
         output.close();
 
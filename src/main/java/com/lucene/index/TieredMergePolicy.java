@@ -0,0 +1,189 @@
+package com.lucene.index;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Merges segments of similar size, allowing a fixed number of segments per
+ * tier of sizes.  The index may hold {@link #segmentsPerTier} segments of
+ * the floor size, as many of {@link #maxMergeAtOnce} times that, and so on.
+ * When it holds more, the cheapest merge of up to maxMergeAtOnce segments
+ * is selected, where cost favours merges of equally sized segments, of
+ * smaller segments, and of segments with more deleted documents.  The
+ * segments of a merge need not be adjacent, so merges may reorder
+ * documents.
+ *
+ * <p>Merged segments are kept under {@link #maxMergedSegmentMB}; segments
+ * larger than half of it are only merged once enough of their documents
+ * are deleted.
+ */
+
+public class TieredMergePolicy extends MergePolicy {
+    /**
+     * The largest number of segments merged at once.  The default is 10.
+     */
+    public int maxMergeAtOnce = 10;
+
+    /**
+     * The number of segments allowed per tier.  Smaller values mean more
+     * merging but fewer segments.  The default is 10.
+     */
+    public double segmentsPerTier = 10.0;
+
+    /**
+     * The largest size of a merged segment.  The default is 5 GB.
+     */
+    public double maxMergedSegmentMB = 5 * 1024.0;
+
+    /**
+     * Segments smaller than this are treated as being of this size, so that
+     * tiny flushed segments are merged together promptly.  The default is
+     * 2 MB.
+     */
+    public double floorSegmentMB = 2.0;
+
+    /**
+     * How strongly merges that reclaim deleted documents are favoured.  The
+     * default is 2; zero ignores deletions.
+     */
+    public double reclaimDeletesWeight = 2.0;
+
+    public Vector findMerges(SegmentInfos infos, IndexWriter writer)
+            throws IOException {
+        long maxMergedBytes = (long) (maxMergedSegmentMB * 1024 * 1024);
+        long floorBytes = (long) (floorSegmentMB * 1024 * 1024);
+
+        // sort all segments by size, largest first
+        int n = infos.size();
+        SegmentInfo[] sorted = new SegmentInfo[n];
+        long[] sizes = new long[n];
+        for (int i = 0; i < n; i++) {
+            SegmentInfo si = infos.info(i);
+            long size = size(si);
+            int j = i;                          // insertion sort
+            for (; j > 0 && sizes[j - 1] < size; j--) {
+                sorted[j] = sorted[j - 1];
+                sizes[j] = sizes[j - 1];
+            }
+            sorted[j] = si;
+            sizes[j] = size;
+        }
+
+        long totIndexBytes = 0;
+        long minSegmentBytes = Long.MAX_VALUE;
+        long mergingBytes = 0;
+        for (int i = 0; i < n; i++) {
+            totIndexBytes += sizes[i];
+            minSegmentBytes = Math.min(minSegmentBytes, sizes[i]);
+            if (writer.isMerging(sorted[i]))
+                mergingBytes += sizes[i];
+        }
+        for (int i = 0; i < n && sizes[i] >= maxMergedBytes / 2; i++)
+            totIndexBytes -= sizes[i];          // too big: not in the budget
+
+        // compute the number of segments allowed for the index's size
+        long levelSize = Math.max(Math.max(minSegmentBytes, floorBytes), 1);
+        long bytesLeft = totIndexBytes;
+        double allowedSegCount = 0;
+        while (true) {
+            double segCountLevel = bytesLeft / (double) levelSize;
+            if (segCountLevel < segmentsPerTier) {
+                allowedSegCount += Math.ceil(segCountLevel);
+                break;
+            }
+            allowedSegCount += segmentsPerTier;
+            bytesLeft -= (long) (segmentsPerTier * levelSize);
+            levelSize *= maxMergeAtOnce;
+        }
+        int allowedSegCountInt = (int) allowedSegCount;
+
+        Vector merges = new Vector();
+        boolean[] selected = new boolean[n];
+        boolean maxMergeIsRunning = mergingBytes >= maxMergedBytes;
+        while (true) {
+            int[] eligible = new int[n];          // into sorted
+            int numEligible = 0;
+            for (int i = 0; i < n; i++)
+                if (!selected[i] && !writer.isMerging(sorted[i]))
+                    eligible[numEligible++] = i;
+            if (numEligible <= allowedSegCountInt)
+                return merges;
+
+            boolean[] best = null;
+            double bestScore = 0;
+            for (int start = 0; start <= numEligible - maxMergeAtOnce; start++) {
+                boolean[] candidate = new boolean[n];
+                int candidateSize = 0;
+                long totAfterMergeBytes = 0;
+                boolean hitTooLarge = false;
+                for (int k = start; k < numEligible && candidateSize < maxMergeAtOnce; k++) {
+                    int i = eligible[k];
+                    if (totAfterMergeBytes + sizes[i] > maxMergedBytes) {
+                        hitTooLarge = true;          // try smaller segments
+                        continue;
+                    }
+                    candidate[i] = true;
+                    candidateSize++;
+                    totAfterMergeBytes += sizes[i];
+                }
+                if (candidateSize < 2)
+                    continue;
+                double score = score(sorted, sizes, candidate, hitTooLarge, floorBytes);
+                if ((best == null || score < bestScore) &&
+                        (!hitTooLarge || !maxMergeIsRunning)) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+            if (best == null)
+                return merges;
+
+            int count = 0;
+            for (int i = 0; i < n; i++)
+                if (best[i]) {
+                    selected[i] = true;
+                    count++;
+                }
+            SegmentInfo[] segments = new SegmentInfo[count];
+            for (int i = 0, j = 0; i < infos.size(); i++) {  // in index order
+                SegmentInfo si = infos.info(i);
+                for (int k = 0; k < n; k++)
+                    if (best[k] && sorted[k] == si)
+                        segments[j++] = si;
+            }
+            merges.addElement(new OneMerge(segments));
+        }
+    }
+
+    /* Lower is better.  Favours merges of equally sized segments, of small
+       segments, and of segments with many deletions. */
+    private final double score(SegmentInfo[] sorted, long[] sizes,
+                               boolean[] candidate, boolean hitTooLarge,
+                               long floorBytes) throws IOException {
+        long totBeforeMergeBytes = 0;
+        long totAfterMergeBytes = 0;
+        long totAfterMergeBytesFloored = 0;
+        long largestFloored = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (!candidate[i])
+                continue;
+            totBeforeMergeBytes += sorted[i].sizeInBytes();
+            totAfterMergeBytes += sizes[i];
+            long floored = Math.max(floorBytes, sizes[i]);
+            totAfterMergeBytesFloored += floored;
+            largestFloored = Math.max(largestFloored, floored);
+        }
+
+        double skew;
+        if (hitTooLarge)                  // a full-size merge: as if
+            skew = 1.0 / maxMergeAtOnce;          // perfectly balanced
+        else
+            skew = (double) largestFloored / totAfterMergeBytesFloored;
+
+        double score = skew * Math.pow(totAfterMergeBytes, 0.05);
+        if (totBeforeMergeBytes > 0)
+            score *= Math.pow((double) totAfterMergeBytes / totBeforeMergeBytes,
+                    reclaimDeletesWeight);
+        return score;
+    }
+}
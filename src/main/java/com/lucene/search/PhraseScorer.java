@@ -58,7 +58,8 @@ abstract class PhraseScorer extends Scorer {
 
             if (freq > 0.0) {
                 float score = Similarity.tf(freq) * weight; // compute score
-                score *= Similarity.norm(norms[first.doc]); // normalize
+                if (norms != null)
+                    score *= Similarity.norm(norms[first.doc]); // normalize
                 results.collect(first.doc, score);      // add to results
             }
             last.next();                  // resume scanning
@@ -45,7 +45,8 @@ final class TermScorer extends Scorer {
                             ? scoreCache[f]              // cache hit
                             : Similarity.tf(f) * weight;          // cache miss
 
-            score *= Similarity.norm(norms[d]);      // normalize for field
+            if (norms != null)
+                score *= Similarity.norm(norms[d]);  // normalize for field
 
             c.collect(d, score);              // collect score
 
@@ -70,6 +70,29 @@ abstract public class Directory {
     abstract public InputStream openFile(String name)
             throws IOException, SecurityException;
 
+    /**
+     * Creates a new, empty file in the directory with the given name.
+     * Returns a stream writing this file, which buffers
+     * <code>bufferSize</code> bytes.
+     */
+    public OutputStream createFile(String name, int bufferSize)
+            throws IOException, SecurityException {
+        OutputStream output = createFile(name);
+        output.setBufferSize(bufferSize);
+        return output;
+    }
+
+    /**
+     * Returns a stream reading an existing file, which reads
+     * <code>bufferSize</code> bytes at a time.
+     */
+    public InputStream openFile(String name, int bufferSize)
+            throws IOException, SecurityException {
+        InputStream input = openFile(name);
+        input.setBufferSize(bufferSize);
+        return input;
+    }
+
     /**
      * Closes the store.
      */
@@ -3,6 +3,8 @@ package com.lucene.store;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 
 /**
  * Straightforward implementation of Directory as a directory of files.
@@ -11,10 +13,51 @@ import java.io.RandomAccessFile;
  * @see Directory
  */
 
-final public class FSDirectory extends Directory {
+public class FSDirectory extends Directory {
     File directory = null;
     boolean isOpen = false;
 
+    /**
+     * The system property naming the class returned by {@link #getDirectory}.
+     * It must be a subclass of FSDirectory with a <code>(File, boolean)</code>
+     * constructor, e.g., <code>com.lucene.store.MMapDirectory</code>.
+     */
+    public static final String IMPL_PROPERTY = "com.lucene.store.FSDirectory.class";
+
+    /**
+     * Returns the directory for the named path.  This is an FSDirectory unless
+     * the system property {@link #IMPL_PROPERTY} names another implementation.
+     */
+    public static FSDirectory getDirectory(String path, boolean create)
+            throws IOException {
+        return getDirectory(new File(path), create);
+    }
+
+    /**
+     * Returns the directory for the named path.  This is an FSDirectory unless
+     * the system property {@link #IMPL_PROPERTY} names another implementation.
+     */
+    public static FSDirectory getDirectory(File path, boolean create)
+            throws IOException {
+        String className = System.getProperty(IMPL_PROPERTY);
+        if (className == null || className.equals(FSDirectory.class.getName()))
+            return new FSDirectory(path, create);
+
+        try {
+            Constructor constructor = Class.forName(className).getConstructor
+                    (new Class[]{File.class, Boolean.TYPE});
+            return (FSDirectory) constructor.newInstance
+                    (new Object[]{path, Boolean.valueOf(create)});
+        } catch (InvocationTargetException e) {
+            if (e.getTargetException() instanceof IOException)
+                throw (IOException) e.getTargetException();
+            throw new IOException("couldn't create " + className + ": "
+                    + e.getTargetException());
+        } catch (Exception e) {
+            throw new IOException("couldn't create " + className + ": " + e);
+        }
+    }
+
     public FSDirectory(String path, boolean create) throws IOException {
         this(new File(path), create);
     }
@@ -134,7 +177,7 @@ final public class FSDirectory extends Directory {
     /**
      * Returns a stream reading an existing file.
      */
-    public final InputStream openFile(String name) throws IOException {
+    public InputStream openFile(String name) throws IOException {
         if (!isOpen)
             throw new IOException("store is not open");
 
@@ -153,10 +196,22 @@ final public class FSDirectory extends Directory {
 
 
 final class FSInputStream extends InputStream {
-    RandomAccessFile file = null;
+    /* A file shared by a stream and its clones.  Since clones may each be at
+       a different position, reads seek the file first unless it is already
+       where the reader wants it. */
+    private final static class Descriptor extends RandomAccessFile {
+        long position;                      // current file position
+
+        public Descriptor(File file, String mode) throws IOException {
+            super(file, mode);
+        }
+    }
+
+    Descriptor file = null;
+    boolean isClone = false;
 
     public FSInputStream(File path) throws IOException {
-        file = new RandomAccessFile(path, "r");
+        file = new Descriptor(path, "r");
         length = file.length();
     }
 
@@ -165,24 +220,44 @@ final class FSInputStream extends InputStream {
      */
     public final void readInternal(byte[] b, int offset, int len)
             throws IOException {
-        if (file.read(b, offset, len) != len)
-            throw new IOException("refill past EOF");
+        synchronized (file) {
+            long position = getFilePointer();
+            if (position != file.position) {
+                file.seek(position);
+                file.position = position;
+            }
+            int total = 0;
+            do {
+                int i = file.read(b, offset + total, len - total);
+                if (i == -1)
+                    throw new IOException("read past EOF");
+                file.position += i;
+                total += i;
+            } while (total < len);
+        }
     }
 
     public final void close() throws IOException {
-        file.close();
+        if (!isClone)
+            file.close();
     }
 
     /**
      * Random-access methods
      */
-    public final void seekInternal(long pos) throws IOException {
-        file.seek(pos);
+    public final void seekInternal(long pos) {
+        // file is positioned by readInternal()
     }
 
     protected final void finalize() throws IOException {
         close();                      // close the file
     }
+
+    public Object clone() {
+        FSInputStream clone = (FSInputStream) super.clone();
+        clone.isClone = true;
+        return clone;
+    }
 }
 
 
@@ -9,12 +9,15 @@ import java.io.IOException;
  */
 
 /**
- * A random-access input stream
+ * A random-access input stream.  A stream may be cloned.  Each clone has its
+ * own position and buffer but shares the underlying file, so several threads
+ * may read the same file at once without re-opening it.
  */
-abstract public class InputStream {
+abstract public class InputStream implements Cloneable {
     final static int BUFFER_SIZE = OutputStream.BUFFER_SIZE;
 
-    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferSize = BUFFER_SIZE;
+    private byte[] buffer;                  // allocated on first refill()
 
     private long bufferStart = 0;              // position in file of buffer
     private int bufferLength = 0;              // end of valid bytes
@@ -25,19 +28,39 @@ abstract public class InputStream {
     /**
      * InputStream-like methods @see java.io.InputStream
      */
-    public final byte readByte() throws IOException {
+    public byte readByte() throws IOException {
         if (bufferPosition >= bufferLength)
             refill();
         return buffer[bufferPosition++];
     }
 
-    public final void readBytes(byte[] b, int offset, int len)
+    public void readBytes(byte[] b, int offset, int len)
             throws IOException {
-        if (len < BUFFER_SIZE) {
-            for (int i = 0; i < len; i++)          // read byte-by-byte
-                b[i + offset] = readByte();
+        int available = bufferLength - bufferPosition;
+        if (len <= available) {              // all in buffer
+            if (len > 0)
+                System.arraycopy(buffer, bufferPosition, b, offset, len);
+            bufferPosition += len;
+            return;
+        }
+
+        if (available > 0) {                  // copy what's buffered
+            System.arraycopy(buffer, bufferPosition, b, offset, available);
+            offset += available;
+            len -= available;
+            bufferPosition += available;
+        }
+
+        if (len < bufferSize) {              // refill, then copy
+            refill();
+            if (bufferLength < len)
+                throw new IOException("read past EOF");
+            System.arraycopy(buffer, 0, b, offset, len);
+            bufferPosition = len;
         } else {                      // read all-at-once
             long start = getFilePointer();
+            if (start + len > length)
+                throw new IOException("read past EOF");
             seekInternal(start);
             readInternal(b, offset, len);
 
@@ -53,6 +76,16 @@ abstract public class InputStream {
     }
 
     public final int readVInt() throws IOException {
+        if (bufferLength - bufferPosition >= 5) {      // decode from buffer
+            byte b = buffer[bufferPosition++];
+            int i = b & 0x7F;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                b = buffer[bufferPosition++];
+                i |= (b & 0x7F) << shift;
+            }
+            return i;
+        }
+
         byte b = readByte();
         int i = b & 0x7F;
         for (int shift = 7; (b & 0x80) != 0; shift += 7) {
@@ -62,6 +95,33 @@ abstract public class InputStream {
         return i;
     }
 
+    /**
+     * Reads <code>n</code> VInts into the start of <code>dst</code>.  Values
+     * are decoded directly from the buffer while a whole VInt is sure to be
+     * buffered.
+     */
+    public void readVInts(int[] dst, int n) throws IOException {
+        int i = 0;
+        while (i < n) {
+            final byte[] bytes = buffer;
+            final int end = bufferLength - 5;
+            int pos = bufferPosition;
+            while (i < n && pos <= end) {
+                byte b = bytes[pos++];
+                int v = b & 0x7F;
+                for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                    b = bytes[pos++];
+                    v |= (b & 0x7F) << shift;
+                }
+                dst[i++] = v;
+            }
+            bufferPosition = pos;
+
+            if (i < n)                      // near end of buffer
+                dst[i++] = readVInt();
+        }
+    }
+
     public final long readLong() throws IOException {
         return (((long) readInt()) << 32) | (readInt() & 0xFFFFFFFFL);
     }
@@ -89,7 +149,22 @@ abstract public class InputStream {
     public final void readChars(char[] buffer, int start, int length)
             throws IOException {
         final int end = start + length;
-        for (int i = start; i < end; i++) {
+        int i = start;
+
+        // ASCII fast path: copy buffered bytes until a multi-byte char
+        final byte[] bytes = this.buffer;
+        int pos = bufferPosition;
+        final int limit = Math.min(bufferLength, pos + length);
+        while (pos < limit) {
+            byte b = bytes[pos];
+            if (b < 0)
+                break;
+            buffer[i++] = (char) b;
+            pos++;
+        }
+        bufferPosition = pos;
+
+        for (; i < end; i++) {
             byte b = readByte();
             if ((b & 0x80) == 0)
                 buffer[i] = (char) (b & 0x7F);
@@ -103,16 +178,46 @@ abstract public class InputStream {
         }
     }
 
+    /**
+     * Sets the number of bytes read from the file per refill.  Larger buffers
+     * suit sequential scans, smaller ones random access.  Any buffered bytes
+     * are discarded.
+     */
+    public final void setBufferSize(int size) throws IOException {
+        if (size == bufferSize)
+            return;
+        if (size <= 0)
+            throw new IllegalArgumentException("buffer size must be positive");
+        if (buffer != null) {
+            long pos = getFilePointer();
+            buffer = null;                  // re-allocate on refill()
+            bufferStart = pos;
+            bufferPosition = 0;
+            bufferLength = 0;
+            seekInternal(pos);
+        }
+        bufferSize = size;
+    }
+
+    /**
+     * Returns the number of bytes read from the file per refill.
+     */
+    public final int getBufferSize() {
+        return bufferSize;
+    }
 
     protected final void refill() throws IOException {
         long start = bufferStart + bufferPosition;
-        long end = start + BUFFER_SIZE;
+        long end = start + bufferSize;
         if (end > length)                  // don't read past EOF
             end = length;
         bufferLength = (int) (end - start);
         if (bufferLength == 0)
             throw new IOException("read past EOF");
 
+        if (buffer == null)
+            buffer = new byte[bufferSize];
+
         readInternal(buffer, 0, bufferLength);
 
         bufferStart = start;
@@ -127,11 +232,11 @@ abstract public class InputStream {
     /**
      * RandomAccessFile-like methods @see java.io.RandomAccessFile
      */
-    public final long getFilePointer() {
+    public long getFilePointer() {
         return bufferStart + bufferPosition;
     }
 
-    public final void seek(long pos) throws IOException {
+    public void seek(long pos) throws IOException {
         if (pos >= bufferStart && pos < (bufferStart + bufferLength))
             bufferPosition = (int) (pos - bufferStart);  // seek within buffer
         else {
@@ -148,4 +253,28 @@ abstract public class InputStream {
         return length;
     }
 
+    /**
+     * Returns a clone of this stream.  The clone is positioned where this
+     * stream is, but thereafter moves independently of it.  Closing a clone
+     * does not close the file which it shares with the original.
+     * <p>
+     * Subclasses must ensure that clones may read concurrently with the
+     * original and with each other.
+     */
+    public Object clone() {
+        InputStream clone = null;
+        try {
+            clone = (InputStream) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e.toString());  // we are Cloneable
+        }
+
+        if (buffer != null) {                  // copy buffered bytes
+            clone.buffer = new byte[bufferSize];
+            System.arraycopy(buffer, 0, clone.buffer, 0, bufferLength);
+        }
+        clone.chars = new char[chars.length];
+        return clone;
+    }
+
 }
@@ -0,0 +1,145 @@
+package com.lucene.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An FSDirectory which reads files through memory maps.  Files are mapped
+ * in chunks of at most {@link #maxChunkSize} bytes, so that files larger
+ * than 2GB may be read.  Reads are served directly from the mapped buffers,
+ * without a copy into a stream buffer and without a system call per refill.
+ * <p>
+ * Writing is unchanged from FSDirectory.
+ *
+ * @see FSDirectory#getDirectory
+ */
+
+public class MMapDirectory extends FSDirectory {
+    /**
+     * The default for {@link #maxChunkSize}.
+     */
+    public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * The largest region of a file that is mapped with a single buffer.
+     * Smaller values use less contiguous address space per file.
+     *
+     * <p>The default value is {@link #MAX_CHUNK_SIZE}.
+     */
+    public int maxChunkSize = MAX_CHUNK_SIZE;
+
+    public MMapDirectory(String path, boolean create) throws IOException {
+        super(path, create);
+    }
+
+    public MMapDirectory(File path, boolean create) throws IOException {
+        super(path, create);
+    }
+
+    /**
+     * Returns a stream reading an existing file through a memory map.
+     */
+    public InputStream openFile(String name) throws IOException {
+        if (!isOpen)
+            throw new IOException("store is not open");
+
+        return new MMapInputStream(new File(directory, name), maxChunkSize);
+    }
+}
+
+
+final class MMapInputStream extends InputStream {
+    private ByteBuffer[] buffers;
+    private int chunkSize;
+    private int current = 0;                  // index of curBuf in buffers
+    private ByteBuffer curBuf;
+
+    MMapInputStream(File path, int chunkSize) throws IOException {
+        this.chunkSize = chunkSize;
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            length = file.length();
+            FileChannel channel = file.getChannel();
+
+            int count = (int) (length / chunkSize) + 1;
+            buffers = new ByteBuffer[count];
+            long start = 0;
+            for (int i = 0; i < count; i++) {
+                long size = Math.min(length - start, chunkSize);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, size);
+                start += size;
+            }
+        } finally {
+            file.close();                  // maps remain valid
+        }
+        curBuf = buffers[0];
+    }
+
+    public final byte readByte() throws IOException {
+        if (!curBuf.hasRemaining())
+            nextBuffer();
+        return curBuf.get();
+    }
+
+    public final void readBytes(byte[] b, int offset, int len)
+            throws IOException {
+        while (len > curBuf.remaining()) {          // span chunks
+            int n = curBuf.remaining();
+            curBuf.get(b, offset, n);
+            offset += n;
+            len -= n;
+            nextBuffer();
+        }
+        curBuf.get(b, offset, len);
+    }
+
+    private final void nextBuffer() throws IOException {
+        if (current + 1 >= buffers.length)
+            throw new IOException("read past EOF");
+        curBuf = buffers[++current];
+        curBuf.position(0);
+    }
+
+    public final long getFilePointer() {
+        return ((long) current * chunkSize) + curBuf.position();
+    }
+
+    public final void seek(long pos) throws IOException {
+        if (pos > length)
+            throw new IOException("seek past EOF");
+        current = (int) (pos / chunkSize);
+        curBuf = buffers[current];
+        curBuf.position((int) (pos % chunkSize));
+    }
+
+    /**
+     * InputStream methods, used only by the default buffering, which is
+     * bypassed by the overrides above.
+     */
+    protected final void readInternal(byte[] b, int offset, int len)
+            throws IOException {
+        readBytes(b, offset, len);
+    }
+
+    protected final void seekInternal(long pos) throws IOException {
+        seek(pos);
+    }
+
+    public final void close() {
+        buffers = null;                  // unmapped when collected
+        curBuf = null;
+    }
+
+    public Object clone() {
+        MMapInputStream clone = (MMapInputStream) super.clone();
+        clone.buffers = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++)  // share maps, not positions
+            clone.buffers[i] = buffers[i].duplicate();
+        clone.curBuf = clone.buffers[current];
+        return clone;
+    }
+}
@@ -0,0 +1,90 @@
+package com.lucene.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An FSDirectory which reads files with positional reads on a FileChannel.
+ * Unlike the streams of FSDirectory, which must seek a shared file, the
+ * clones of a stream opened here read concurrently without synchronizing
+ * with each other.
+ * <p>
+ * Writing is unchanged from FSDirectory.
+ *
+ * @see FSDirectory#getDirectory
+ * @see InputStream#clone
+ */
+
+public class NIOFSDirectory extends FSDirectory {
+
+    public NIOFSDirectory(String path, boolean create) throws IOException {
+        super(path, create);
+    }
+
+    public NIOFSDirectory(File path, boolean create) throws IOException {
+        super(path, create);
+    }
+
+    /**
+     * Returns a stream reading an existing file.
+     */
+    public InputStream openFile(String name) throws IOException {
+        if (!isOpen)
+            throw new IOException("store is not open");
+
+        return new NIOFSInputStream(new File(directory, name));
+    }
+}
+
+
+final class NIOFSInputStream extends InputStream {
+    RandomAccessFile file;
+    FileChannel channel;
+    boolean isClone = false;
+
+    NIOFSInputStream(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        length = file.length();
+    }
+
+    /**
+     * InputStream methods
+     */
+    protected final void readInternal(byte[] b, int offset, int len)
+            throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b, offset, len);
+        long position = getFilePointer();
+        while (bb.hasRemaining()) {
+            int i = channel.read(bb, position);
+            if (i == -1)
+                throw new IOException("read past EOF");
+            position += i;
+        }
+    }
+
+    public final void close() throws IOException {
+        if (!isClone)
+            file.close();
+    }
+
+    /**
+     * Random-access methods
+     */
+    protected final void seekInternal(long pos) {
+        // reads are positional
+    }
+
+    protected final void finalize() throws IOException {
+        close();                      // close the file
+    }
+
+    public Object clone() {
+        NIOFSInputStream clone = (NIOFSInputStream) super.clone();
+        clone.isClone = true;
+        return clone;
+    }
+}
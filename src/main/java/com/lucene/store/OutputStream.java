@@ -14,22 +14,38 @@ import java.io.IOException;
 abstract public class OutputStream {
     final static int BUFFER_SIZE = 1024;
 
-    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferSize = BUFFER_SIZE;
+    private byte[] buffer = new byte[BUFFER_SIZE];
     private long bufferStart = 0;              // position in file of buffer
     private int bufferPosition = 0;          // position in buffer
+    private RateLimiter rateLimiter = null;
 
     /**
      * OutputStream-like methods @see java.io.InputStream
      */
     public final void writeByte(byte b) throws IOException {
-        if (bufferPosition >= BUFFER_SIZE)
+        if (bufferPosition >= bufferSize)
             flush();
         buffer[bufferPosition++] = b;
     }
 
     public final void writeBytes(byte[] b, int length) throws IOException {
-        for (int i = 0; i < length; i++)
-            writeByte(b[i]);
+        writeBytes(b, 0, length);
+    }
+
+    public final void writeBytes(byte[] b, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            if (bufferPosition >= bufferSize)
+                flush();
+            int n = bufferSize - bufferPosition;      // copy what fits
+            if (n > length)
+                n = length;
+            System.arraycopy(b, offset, buffer, bufferPosition, n);
+            bufferPosition += n;
+            offset += n;
+            length -= n;
+        }
     }
 
     public final void writeInt(int i) throws IOException {
@@ -40,6 +56,15 @@ abstract public class OutputStream {
     }
 
     public final void writeVInt(int i) throws IOException {
+        if (bufferSize - bufferPosition >= 5) {      // encode into buffer
+            while ((i & ~0x7F) != 0) {
+                buffer[bufferPosition++] = (byte) ((i & 0x7f) | 0x80);
+                i >>>= 7;
+            }
+            buffer[bufferPosition++] = (byte) i;
+            return;
+        }
+
         while ((i & ~0x7F) != 0) {
             writeByte((byte) ((i & 0x7f) | 0x80));
             i >>>= 7;
@@ -69,7 +94,22 @@ abstract public class OutputStream {
     public final void writeChars(String s, int start, int length)
             throws IOException {
         final int end = start + length;
-        for (int i = start; i < end; i++) {
+        int i = start;
+
+        if (bufferSize - bufferPosition >= length) {  // ASCII fast path
+            final byte[] bytes = buffer;
+            int pos = bufferPosition;
+            while (i < end) {
+                final int code = (int) s.charAt(i);
+                if (code < 0x01 || code > 0x7F)
+                    break;
+                bytes[pos++] = (byte) code;
+                i++;
+            }
+            bufferPosition = pos;
+        }
+
+        for (; i < end; i++) {
             final int code = (int) s.charAt(i);
             if (code >= 0x01 && code <= 0x7F)
                 writeByte((byte) code);
@@ -85,6 +125,8 @@ abstract public class OutputStream {
     }
 
     protected final void flush() throws IOException {
+        if (rateLimiter != null)
+            rateLimiter.pause(bufferPosition);
         flushBuffer(buffer, bufferPosition);
         bufferStart += bufferPosition;
         bufferPosition = 0;
@@ -92,6 +134,35 @@ abstract public class OutputStream {
 
     abstract protected void flushBuffer(byte[] b, int len) throws IOException;
 
+    /**
+     * Sets the number of bytes buffered before they are written to the file.
+     * Larger buffers suit large sequentially written files.
+     */
+    public final void setBufferSize(int size) throws IOException {
+        if (size == bufferSize)
+            return;
+        if (size <= 0)
+            throw new IllegalArgumentException("buffer size must be positive");
+        flush();
+        bufferSize = size;
+        buffer = new byte[size];
+    }
+
+    /**
+     * Returns the number of bytes buffered before they are written.
+     */
+    public final int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Limits the rate at which this stream writes.  Null, the default, means
+     * no limit.
+     */
+    public final void setRateLimiter(RateLimiter limiter) {
+        rateLimiter = limiter;
+    }
+
     public void close() throws IOException {
         flush();
     }
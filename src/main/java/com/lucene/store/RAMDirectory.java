@@ -1,25 +1,64 @@
 package com.lucene.store;
 
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A memory-resident Directory.  File data is held off the Java heap, in
+ * direct buffers drawn from a shared pool of fixed-size blocks, so that large
+ * in-memory indexes add little to garbage collection.  Blocks of deleted
+ * files are returned to the pool once no stream is reading them.
+ */
 
 final public class RAMDirectory extends Directory {
-    Hashtable files = new Hashtable();
+    ConcurrentHashMap files = new ConcurrentHashMap();
 
     public RAMDirectory() {
     }
 
+    /**
+     * Creates a RAMDirectory holding a copy of every file in another
+     * directory, e.g., to load an index from an {@link FSDirectory} into
+     * memory.  The other directory is not closed.
+     */
+    public RAMDirectory(Directory dir) throws IOException {
+        byte[] buffer = new byte[RAMFile.BLOCK_SIZE];
+        String[] names = dir.list();
+        for (int i = 0; i < names.length; i++) {
+            RAMFile file = new RAMFile();
+            InputStream input = dir.openFile(names[i]);
+            try {
+                long length = input.length();
+                for (long pos = 0; pos < length; ) {      // copy block-wise
+                    int len = (int) Math.min(length - pos, buffer.length);
+                    input.readBytes(buffer, 0, len);
+                    file.write(pos, buffer, 0, len);
+                    pos += len;
+                }
+            } finally {
+                input.close();
+            }
+            file.lastModified = dir.fileModified(names[i]);
+            install(names[i], file);
+        }
+    }
+
     /**
      * Returns an array of strings, one for each file in the directory.
      */
     public final String[] list() {
         String[] result = new String[files.size()];
         int i = 0;
-        Enumeration names = files.keys();
-        while (names.hasMoreElements())
-            result[i++] = (String) names.nextElement();
+        Iterator names = files.keySet().iterator();
+        while (names.hasNext() && i < result.length)  // files may be added
+            result[i++] = (String) names.next();
+        if (i < result.length) {                  // or removed meanwhile
+            String[] trimmed = new String[i];
+            System.arraycopy(result, 0, trimmed, 0, i);
+            result = trimmed;
+        }
         return result;
     }
 
@@ -27,8 +66,7 @@ final public class RAMDirectory extends Directory {
      * Returns true iff the named file exists in this directory.
      */
     public final boolean fileExists(String name) {
-        RAMFile file = (RAMFile) files.get(name);
-        return file != null;
+        return files.containsKey(name);
     }
 
     /**
@@ -51,16 +89,18 @@ final public class RAMDirectory extends Directory {
      * Removes an existing file in the directory.
      */
     public final void deleteFile(String name) {
-        files.remove(name);
+        RAMFile file = (RAMFile) files.remove(name);
+        if (file != null)
+            file.decRef();
     }
 
     /**
-     * Removes an existing file in the directory.
+     * Renames an existing file in the directory.
      */
     public final void renameFile(String from, String to) {
-        RAMFile file = (RAMFile) files.get(from);
-        files.remove(from);
-        files.put(to, file);
+        RAMFile file = (RAMFile) files.remove(from);
+        if (file != null)
+            install(to, file);
     }
 
     /**
@@ -69,15 +109,17 @@ final public class RAMDirectory extends Directory {
      */
     public final OutputStream createFile(String name) {
         RAMFile file = new RAMFile();
-        files.put(name, file);
+        install(name, file);
         return new RAMOutputStream(file);
     }
 
     /**
      * Returns a stream reading an existing file.
      */
-    public final InputStream openFile(String name) {
+    public final InputStream openFile(String name) throws IOException {
         RAMFile file = (RAMFile) files.get(name);
+        if (file == null)
+            throw new IOException(name + " not found");
         return new RAMInputStream(file);
     }
 
@@ -86,15 +128,23 @@ final public class RAMDirectory extends Directory {
      */
     public final void close() {
     }
+
+    private final void install(String name, RAMFile file) {
+        RAMFile old = (RAMFile) files.put(name, file);
+        if (old != null)
+            old.decRef();                  // replaced
+    }
 }
 
 
 final class RAMInputStream extends InputStream {
     RAMFile file;
-    int pointer = 0;
+    long pointer = 0;
+    private boolean closed = false;
 
     public RAMInputStream(RAMFile f) {
         file = f;
+        file.incRef();
         length = file.length;
     }
 
@@ -102,75 +152,58 @@ final class RAMInputStream extends InputStream {
      * InputStream methods
      */
     public final void readInternal(byte[] dest, int destOffset, int len) {
-        int bufferNumber = pointer / InputStream.BUFFER_SIZE;
-        int bufferOffset = pointer % InputStream.BUFFER_SIZE;
-        int bytesInBuffer = InputStream.BUFFER_SIZE - bufferOffset;
-        int bytesToCopy = bytesInBuffer >= len ? len : bytesInBuffer;
-        byte[] buffer = (byte[]) file.buffers.elementAt(bufferNumber);
-        System.arraycopy(buffer, bufferOffset, dest, destOffset, bytesToCopy);
-
-        if (bytesToCopy < len) {              // not all in one buffer
-            destOffset += bytesToCopy;
-            bytesToCopy = len - bytesToCopy;          // remaining bytes
-            buffer = (byte[]) file.buffers.elementAt(bufferNumber + 1);
-            System.arraycopy(buffer, 0, dest, destOffset, bytesToCopy);
-        }
+        file.read(pointer, dest, destOffset, len);
         pointer += len;
     }
 
     public final void close() {
+        if (!closed) {
+            closed = true;
+            file.decRef();
+        }
     }
 
     /**
      * Random-access methods
      */
     public final void seekInternal(long pos) {
-        pointer = (int) pos;
+        pointer = pos;
+    }
+
+    public Object clone() {
+        RAMInputStream clone = (RAMInputStream) super.clone();
+        if (!closed)
+            file.incRef();
+        return clone;
     }
 }
 
 
 final class RAMOutputStream extends OutputStream {
     RAMFile file;
-    int pointer = 0;
+    long pointer = 0;
+    private boolean closed = false;
 
     public RAMOutputStream(RAMFile f) {
         file = f;
+        file.incRef();
     }
 
     /**
      * output methods:
      */
     public final void flushBuffer(byte[] src, int len) {
-        int bufferNumber = pointer / OutputStream.BUFFER_SIZE;
-        int bufferOffset = pointer % OutputStream.BUFFER_SIZE;
-        int bytesInBuffer = OutputStream.BUFFER_SIZE - bufferOffset;
-        int bytesToCopy = bytesInBuffer >= len ? len : bytesInBuffer;
-
-        if (bufferNumber == file.buffers.size())
-            file.buffers.addElement(new byte[OutputStream.BUFFER_SIZE]);
-
-        byte[] buffer = (byte[]) file.buffers.elementAt(bufferNumber);
-        System.arraycopy(src, 0, buffer, bufferOffset, bytesToCopy);
-
-        if (bytesToCopy < len) {              // not all in one buffer
-            int srcOffset = bytesToCopy;
-            bytesToCopy = len - bytesToCopy;          // remaining bytes
-            bufferNumber++;
-            if (bufferNumber == file.buffers.size())
-                file.buffers.addElement(new byte[OutputStream.BUFFER_SIZE]);
-            buffer = (byte[]) file.buffers.elementAt(bufferNumber);
-            System.arraycopy(src, srcOffset, buffer, 0, bytesToCopy);
-        }
+        file.write(pointer, src, 0, len);
         pointer += len;
-        if (pointer > file.length)
-            file.length = pointer;
-
         file.lastModified = System.currentTimeMillis();
     }
 
     public final void close() throws IOException {
         super.close();
+        if (!closed) {
+            closed = true;
+            file.decRef();
+        }
     }
 
     /**
@@ -178,7 +211,7 @@ final class RAMOutputStream extends OutputStream {
      */
     public final void seek(long pos) throws IOException {
         super.seek(pos);
-        pointer = (int) pos;
+        pointer = pos;
     }
 
     public final long length() {
@@ -186,8 +219,104 @@ final class RAMOutputStream extends OutputStream {
     }
 }
 
+/* The content of a file, as a list of blocks.  A file is referenced by its
+   directory entry and by each open stream.  When the last reference is
+   released the blocks return to the pool. */
 final class RAMFile {
-    Vector buffers = new Vector();
-    long length;
-    long lastModified = System.currentTimeMillis();
+    static final int BLOCK_SIZE = RAMBlockPool.BLOCK_SIZE;
+
+    private ByteBuffer[] blocks = new ByteBuffer[1];
+    private int numBlocks = 0;
+    private int refCount = 1;                  // held by the directory
+
+    volatile long length;
+    volatile long lastModified = System.currentTimeMillis();
+
+    final void write(long pos, byte[] src, int srcOffset, int len) {
+        while (len > 0) {
+            int blockNumber = (int) (pos / BLOCK_SIZE);
+            int blockOffset = (int) (pos % BLOCK_SIZE);
+            int bytesToCopy = Math.min(BLOCK_SIZE - blockOffset, len);
+
+            ByteBuffer block = block(blockNumber, true).duplicate();
+            block.position(blockOffset);
+            block.put(src, srcOffset, bytesToCopy);
+
+            srcOffset += bytesToCopy;
+            pos += bytesToCopy;
+            len -= bytesToCopy;
+        }
+        if (pos > length)
+            length = pos;
+    }
+
+    final void read(long pos, byte[] dest, int destOffset, int len) {
+        while (len > 0) {
+            int blockNumber = (int) (pos / BLOCK_SIZE);
+            int blockOffset = (int) (pos % BLOCK_SIZE);
+            int bytesToCopy = Math.min(BLOCK_SIZE - blockOffset, len);
+
+            ByteBuffer block = block(blockNumber, false).duplicate();
+            block.position(blockOffset);
+            block.get(dest, destOffset, bytesToCopy);
+
+            destOffset += bytesToCopy;
+            pos += bytesToCopy;
+            len -= bytesToCopy;
+        }
+    }
+
+    private final synchronized ByteBuffer block(int n, boolean create) {
+        if (n < numBlocks)
+            return blocks[n];
+        if (!create)
+            throw new IllegalStateException("read past EOF");
+
+        while (numBlocks <= n) {                  // extend file
+            if (numBlocks == blocks.length) {
+                ByteBuffer[] newBlocks = new ByteBuffer[blocks.length * 2];
+                System.arraycopy(blocks, 0, newBlocks, 0, numBlocks);
+                blocks = newBlocks;
+            }
+            blocks[numBlocks++] = RAMBlockPool.allocate();
+        }
+        return blocks[n];
+    }
+
+    final synchronized void incRef() {
+        refCount++;
+    }
+
+    final synchronized void decRef() {
+        if (--refCount == 0) {
+            for (int i = 0; i < numBlocks; i++)
+                RAMBlockPool.release(blocks[i]);
+            blocks = null;
+            numBlocks = 0;
+        }
+    }
+}
+
+/* Direct buffers are expensive to allocate and are only freed by the
+   collector, so blocks of deleted files are kept for re-use. */
+final class RAMBlockPool {
+    static final int BLOCK_SIZE = 8192;
+    static final int MAX_FREE_BLOCKS = 4096;      // 32MB
+
+    private static ByteBuffer[] free = new ByteBuffer[MAX_FREE_BLOCKS];
+    private static int numFree = 0;
+
+    static final synchronized ByteBuffer allocate() {
+        if (numFree > 0) {
+            ByteBuffer block = free[--numFree];
+            free[numFree] = null;
+            return block;
+        }
+        return ByteBuffer.allocateDirect(BLOCK_SIZE);
+    }
+
+    static final synchronized void release(ByteBuffer block) {
+        if (numFree < MAX_FREE_BLOCKS)
+            free[numFree++] = block;          // else left to the collector
+    }
 }
@@ -0,0 +1,75 @@
+package com.lucene.store;
+
+import java.io.IOException;
+
+/**
+ * A Directory whose files are written at a limited rate.  It wraps another
+ * directory, so that one task, e.g., segment merging, can be throttled while
+ * other writers and all readers of the same directory are not.
+ */
+
+public class RateLimitedDirectory extends Directory {
+    private Directory directory;
+    private RateLimiter limiter;
+
+    public RateLimitedDirectory(Directory directory, RateLimiter limiter) {
+        this.directory = directory;
+        this.limiter = limiter;
+    }
+
+    public String[] list() throws IOException {
+        return directory.list();
+    }
+
+    public boolean fileExists(String name) throws IOException {
+        return directory.fileExists(name);
+    }
+
+    public long fileModified(String name) throws IOException {
+        return directory.fileModified(name);
+    }
+
+    public void deleteFile(String name) throws IOException {
+        directory.deleteFile(name);
+    }
+
+    public void renameFile(String from, String to) throws IOException {
+        directory.renameFile(from, to);
+    }
+
+    public long fileLength(String name) throws IOException {
+        return directory.fileLength(name);
+    }
+
+    /**
+     * Creates a file in the wrapped directory, written at a limited rate.
+     */
+    public OutputStream createFile(String name) throws IOException {
+        OutputStream output = directory.createFile(name);
+        output.setRateLimiter(limiter);
+        return output;
+    }
+
+    public OutputStream createFile(String name, int bufferSize)
+            throws IOException {
+        OutputStream output = directory.createFile(name, bufferSize);
+        output.setRateLimiter(limiter);
+        return output;
+    }
+
+    public InputStream openFile(String name) throws IOException {
+        return directory.openFile(name);
+    }
+
+    public InputStream openFile(String name, int bufferSize)
+            throws IOException {
+        return directory.openFile(name, bufferSize);
+    }
+
+    /**
+     * Closes the wrapped directory.
+     */
+    public void close() throws IOException {
+        directory.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.lucene.store;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the rate at which bytes are written, by pausing writing threads.
+ * One limiter may be shared by several streams and threads, whose bytes then
+ * count against a single limit.  The limit may be changed at any time.
+ *
+ * @see OutputStream#setRateLimiter
+ * @see RateLimitedDirectory
+ */
+
+public class RateLimiter {
+    private volatile double mbPerSec;
+    private volatile double nsPerByte;
+    private long nextNS;                  // when the next byte may go
+    private long pausedNS;                  // total time paused
+
+    /* Sleeps are imprecise, so short pauses are deferred until they add up,
+       and time lost oversleeping is made up by later writes. */
+    private static final long MIN_PAUSE_NS = 5000000;
+    private static final long MAX_CREDIT_NS = 20000000;
+
+    /**
+     * Creates a limiter allowing <code>mbPerSec</code> megabytes per second.
+     * Zero means no limit.
+     */
+    public RateLimiter(double mbPerSec) {
+        setMbPerSec(mbPerSec);
+    }
+
+    /**
+     * Changes the limit.  Zero means no limit.
+     */
+    public void setMbPerSec(double mbPerSec) {
+        if (mbPerSec < 0)
+            throw new IllegalArgumentException("rate must not be negative");
+        this.mbPerSec = mbPerSec;
+        nsPerByte = mbPerSec == 0 ? 0 : 1000000000.0 / (mbPerSec * 1024 * 1024);
+    }
+
+    /**
+     * Returns the limit, in megabytes per second.
+     */
+    public double getMbPerSec() {
+        return mbPerSec;
+    }
+
+    /**
+     * Returns the total time threads have been paused by this limiter.
+     */
+    public synchronized long getTotalPausedMillis() {
+        return pausedNS / 1000000;
+    }
+
+    /**
+     * Accounts for <code>bytes</code> being written, pausing the calling
+     * thread for as long as needed to keep to the limit.  Time during which
+     * nothing was written is not credited, beyond a few milliseconds.
+     * Returns the time paused, in nanoseconds.
+     */
+    public long pause(long bytes) throws IOException {
+        double nsPerByte = this.nsPerByte;
+        if (nsPerByte == 0)
+            return 0;
+
+        long targetNS;
+        long startNS = System.nanoTime();
+        synchronized (this) {
+            if (nextNS < startNS - MAX_CREDIT_NS)
+                nextNS = startNS;              // idle
+            nextNS += (long) (bytes * nsPerByte);
+            targetNS = nextNS;
+        }
+        if (targetNS - startNS < MIN_PAUSE_NS)
+            return 0;
+
+        long now = startNS;
+        while (targetNS > now) {
+            long ns = targetNS - now;
+            try {
+                Thread.sleep(ns / 1000000, (int) (ns % 1000000));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            }
+            now = System.nanoTime();
+        }
+
+        long paused = now - startNS;
+        synchronized (this) {
+            pausedNS += paused;
+        }
+        return paused;
+    }
+}
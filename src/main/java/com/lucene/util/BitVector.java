@@ -33,7 +33,7 @@ import com.lucene.store.OutputStream;
  * <LI>inlinable get() method;</LI>
  * </UL>
  */
-public final class BitVector {
+public final class BitVector implements Cloneable {
     /**
      * This is public just so that methods will inline.  Please don't touch.
      */
@@ -49,6 +49,19 @@ public final class BitVector {
         bits = new byte[(size >> 3) + 1];
     }
 
+    /**
+     * Returns a copy of this vector, whose bits may be changed independently.
+     */
+    public Object clone() {
+        try {
+            BitVector clone = (BitVector) super.clone();
+            clone.bits = bits.clone();
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
     /**
      * Sets the value of <code>bit</code> to one.
      */
@@ -0,0 +1,157 @@
+package com.lucene.util;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * A hash table keyed by character sequences, which may be looked up with a
+ * portion of a char[], so that text held in a buffer need not be made into a
+ * String first.  Keys are copied when they are added.
+ */
+public final class CharArrayMap {
+    private char[][] keys;
+    private Object[] values;
+    private int count = 0;
+
+    /**
+     * Constructs an empty map.
+     */
+    public CharArrayMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty map sized for the given number of keys.
+     */
+    public CharArrayMap(int expected) {
+        int size = 16;
+        while (size < expected * 2)
+            size <<= 1;
+        keys = new char[size][];
+        values = new Object[size];
+    }
+
+    /**
+     * Returns the value of the key held in <code>text[offset]</code> through
+     * <code>text[offset+length-1]</code>, or null.
+     */
+    public final Object get(char[] text, int offset, int length) {
+        return values[slot(text, offset, length)];
+    }
+
+    /**
+     * Returns the value of a key, or null.
+     */
+    public final Object get(String text) {
+        return get(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * Sets the value of the key held in <code>text[offset]</code> through
+     * <code>text[offset+length-1]</code>.
+     */
+    public final void put(char[] text, int offset, int length, Object value) {
+        int slot = slot(text, offset, length);
+        if (keys[slot] == null) {
+            char[] key = new char[length];
+            System.arraycopy(text, offset, key, 0, length);
+            keys[slot] = key;
+            values[slot] = value;
+            if (++count * 2 > keys.length)          // keep half empty
+                rehash();
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Sets the value of a key.
+     */
+    public final void put(String text, Object value) {
+        put(text.toCharArray(), 0, text.length(), value);
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     */
+    public final int size() {
+        return count;
+    }
+
+    /**
+     * Removes all keys from the map.
+     */
+    public final void clear() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = null;
+            values[i] = null;
+        }
+        count = 0;
+    }
+
+    /**
+     * Returns an enumeration of the values in the map, in no particular
+     * order.
+     */
+    public final Enumeration elements() {
+        return new Enumeration() {
+            private int i = next(0);
+
+            private int next(int from) {
+                while (from < keys.length && keys[from] == null)
+                    from++;
+                return from;
+            }
+
+            public boolean hasMoreElements() {
+                return i < keys.length;
+            }
+
+            public Object nextElement() {
+                if (i >= keys.length)
+                    throw new NoSuchElementException();
+                Object value = values[i];
+                i = next(i + 1);
+                return value;
+            }
+        };
+    }
+
+    /* Returns the slot holding a key, or the empty slot where it belongs. */
+    private final int slot(char[] text, int offset, int length) {
+        int code = 0;
+        for (int i = offset; i < offset + length; i++)
+            code = 31 * code + text[i];
+        int mask = keys.length - 1;
+        int slot = (code ^ (code >>> 16)) & mask;
+        char[] key;
+        while ((key = keys[slot]) != null && !equals(key, text, offset, length))
+            slot = (slot + 1) & mask;              // linear probing
+        return slot;
+    }
+
+    private static final boolean equals(char[] key, char[] text, int offset,
+                                        int length) {
+        if (key.length != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (key[i] != text[offset + i])
+                return false;
+        return true;
+    }
+
+    private final void rehash() {
+        char[][] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new char[oldKeys.length * 2][];
+        values = new Object[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            char[] key = oldKeys[i];
+            if (key != null) {
+                int slot = slot(key, 0, key.length);
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}